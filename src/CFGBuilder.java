@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.bytedeco.llvm.LLVM.*;
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * Insertion point and terminator bookkeeping for one function at a time.
+ *
+ * Jump targets are Labels; the LLVM block behind a label is appended only
+ * when something branches to it, or when code falls through into a label
+ * that needs a block of its own (loop headers). Falling into any other
+ * label just continues the current block. Once a block is terminated the
+ * builder is unreachable until the next label with a predecessor is
+ * positioned, callers skip code generation while isReachable() is false.
+ */
+public class CFGBuilder {
+    static class Block {
+        private LLVMBasicBlockRef ref;
+        private final List<Block> preds = new ArrayList<>();
+        private boolean sealed = false;
+        private boolean pinned = false;
+        private Block foldedInto = null;
+
+        Block(LLVMBasicBlockRef ref) {
+            this.ref = ref;
+        }
+
+        public LLVMBasicBlockRef getRef() {
+            return ref;
+        }
+
+        public List<Block> getPreds() {
+            return preds;
+        }
+
+        // all predecessors are known
+        public boolean isSealed() {
+            return sealed;
+        }
+
+        // keep the block even if it has no instruction
+        public void pin() {
+            pinned = true;
+        }
+    }
+
+    static class Label {
+        private final String name;
+        private Block block = null;
+
+        Label(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final LLVMBuilderRef builder;
+    private LLVMValueRef func;
+    private Block entry;
+    private Block current; // null while unreachable
+    private Consumer<Block> onSeal = b -> {
+    };
+
+    public CFGBuilder(LLVMBuilderRef builder) {
+        this.builder = builder;
+    }
+
+    public void setOnSeal(Consumer<Block> onSeal) {
+        this.onSeal = onSeal;
+    }
+
+    private void sealBlock(Block block) {
+        if (!block.sealed) {
+            block.sealed = true;
+            onSeal.accept(block);
+        }
+    }
+
+    public void beginFunction(LLVMValueRef func, String entryName) {
+        this.func = func;
+        entry = new Block(appendBlock(entryName));
+        sealBlock(entry);
+        current = entry;
+        LLVMPositionBuilderAtEnd(builder, entry.ref);
+    }
+
+    // in func's own context, which need not be the global one
+    private LLVMBasicBlockRef appendBlock(String name) {
+        return LLVMAppendBasicBlockInContext(LLVMGetTypeContext(LLVMTypeOf(func)), func, name);
+    }
+
+    public Block getEntry() {
+        return entry;
+    }
+
+    public Block getCurrent() {
+        return current;
+    }
+
+    public boolean isReachable() {
+        return current != null;
+    }
+
+    public Label newLabel(String name) {
+        return new Label(name);
+    }
+
+    private Block resolve(Block block) {
+        while (block.foldedInto != null) {
+            block = block.foldedInto;
+        }
+        return block;
+    }
+
+    private Block blockOf(Label label) {
+        if (label.block == null) {
+            label.block = new Block(appendBlock(label.name));
+        }
+        label.block = resolve(label.block);
+        return label.block;
+    }
+
+    private boolean isEmpty(Block block) {
+        return LLVMGetFirstInstruction(block.ref) == null;
+    }
+
+    // current block becomes a dead end, e.g. after ret
+    public void terminate() {
+        current = null;
+    }
+
+    public void br(Label target) {
+        if (current == null) {
+            return;
+        }
+        var to = blockOf(target);
+        if (current != entry && current.sealed && !current.pinned && isEmpty(current) && current != to) {
+            // fold the empty block: everyone jumping here jumps to target instead
+            LLVMReplaceAllUsesWith(LLVMBasicBlockAsValue(current.ref), LLVMBasicBlockAsValue(to.ref));
+            to.preds.addAll(current.preds);
+            LLVMDeleteBasicBlock(current.ref);
+            current.foldedInto = to;
+            current = null;
+            return;
+        }
+        LLVMBuildBr(builder, to.ref);
+        to.preds.add(current);
+        current = null;
+    }
+
+    public void condBr(LLVMValueRef cond, Label trueLabel, Label falseLabel) {
+        if (current == null) {
+            return;
+        }
+        if (LLVMIsAConstantInt(cond) != null) {
+            br(LLVMConstIntGetZExtValue(cond) != 0 ? trueLabel : falseLabel);
+            return;
+        }
+        if (trueLabel == falseLabel) {
+            br(trueLabel);
+            return;
+        }
+        var t = blockOf(trueLabel);
+        var f = blockOf(falseLabel);
+        LLVMBuildCondBr(builder, cond, t.ref, f.ref);
+        t.preds.add(current);
+        f.preds.add(current);
+        current = null;
+    }
+
+    // jump to the target of the case equal to value, otherwise when there is none
+    public void switchBr(LLVMValueRef value, Label otherwise, List<LLVMValueRef> cases, List<Label> targets) {
+        if (current == null) {
+            return;
+        }
+        if (LLVMIsAConstantInt(value) != null) {
+            long v = LLVMConstIntGetSExtValue(value);
+            for (int i = 0; i < cases.size(); i++) {
+                if (LLVMConstIntGetSExtValue(cases.get(i)) == v) {
+                    br(targets.get(i));
+                    return;
+                }
+            }
+            br(otherwise);
+            return;
+        }
+        var d = blockOf(otherwise);
+        var sw = LLVMBuildSwitch(builder, value, d.ref, cases.size());
+        d.preds.add(current);
+        for (int i = 0; i < cases.size(); i++) {
+            var t = blockOf(targets.get(i));
+            LLVMAddCase(sw, cases.get(i), t.ref);
+            t.preds.add(current);
+        }
+        current = null;
+    }
+
+    private void moveToEnd(Block block) {
+        var last = LLVMGetLastBasicBlock(func);
+        if (!last.equals(block.ref)) {
+            LLVMMoveBasicBlockAfter(block.ref, last);
+        }
+    }
+
+    /**
+     * continue emitting at label, all jumps to it must be emitted already.
+     * code falling through from the current block stays in that block.
+     */
+    public void position(Label label) {
+        if (label.block == null) {
+            if (current != null) {
+                label.block = current; // fall through, no block needed
+            }
+            return;
+        }
+        var block = resolve(label.block);
+        if (current != null) {
+            br(label);
+        }
+        sealBlock(block);
+        if (mergeIntoSinglePred(block)) {
+            return;
+        }
+        moveToEnd(block);
+        current = block;
+        LLVMPositionBuilderAtEnd(builder, block.ref);
+    }
+
+    // pred -> block is the only edge into block and pred's only way out: drop the br, keep going in pred
+    private boolean mergeIntoSinglePred(Block block) {
+        if (block.preds.size() != 1) {
+            return false;
+        }
+        var pred = block.preds.get(0);
+        var term = LLVMGetBasicBlockTerminator(pred.ref);
+        if (pred == block || term == null
+                || LLVMGetInstructionOpcode(term) != LLVMBr || LLVMIsConditional(term) != 0) {
+            return false;
+        }
+        LLVMInstructionEraseFromParent(term);
+        LLVMDeleteBasicBlock(block.ref);
+        block.foldedInto = pred;
+        current = pred;
+        LLVMPositionBuilderAtEnd(builder, pred.ref);
+        return true;
+    }
+
+    /**
+     * continue emitting at a label that will get more jumps later, such as a
+     * loop header. it always gets its own block and stays unsealed until
+     * seal() is called.
+     */
+    public void positionUnsealed(Label label) {
+        if (current == null && label.block == null) {
+            return; // nothing can enter it before it is positioned, so nothing ever will
+        }
+        br(label);
+        var block = blockOf(label);
+        moveToEnd(block);
+        current = block;
+        LLVMPositionBuilderAtEnd(builder, block.ref);
+    }
+
+    /**
+     * continue in a new block that nothing jumps to, for code that still has
+     * to be generated after a dead end. llvm drops the block later.
+     */
+    public void positionDetached(Label label) {
+        var block = blockOf(label);
+        sealBlock(block);
+        moveToEnd(block);
+        current = block;
+        LLVMPositionBuilderAtEnd(builder, block.ref);
+    }
+
+    public void seal(Label label) {
+        if (label.block != null) {
+            sealBlock(resolve(label.block));
+        }
+    }
+}
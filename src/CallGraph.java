@@ -0,0 +1,498 @@
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * Calls between the funcDefs of a program, built from the tree before any
+ * code is generated, and the inlining decisions based on it.
+ *
+ * A function is inlined at a call site when it is not recursive (not part
+ * of a cycle, self calls included) and its size with its own inlinable
+ * callees expanded is within the threshold. Sizes are a rough count of the
+ * instructions the body turns into.
+ *
+ * A function is pure when it only has int params, reads and writes no
+ * global variable (global consts are fine) and only calls pure functions;
+ * its result depends on its arguments alone. The runtime library does I/O
+ * and is never pure. A pure function is also speculatable when it always
+ * returns without trapping: no loops, no recursion, division only by
+ * nonzero constants, only speculatable callees. Such calls can be moved
+ * to where they may run even if the original code would not have.
+ *
+ * Weaker facts go to the LLVM function attributes (see getAttributes): a
+ * function that writes no memory but its own locals, with callees doing
+ * the same, is readonly; one without loops or recursion whose callees all
+ * return is willreturn.
+ */
+public class CallGraph {
+    static class Node {
+        private final String name;
+        private final SysYParser.FuncDefContext def;
+        private final List<String> callees = new ArrayList<>(); // one entry per call site
+        private int size = 0;
+        private int inlinedSize = -1;
+        private boolean recursive = false;
+        private int selfTailCalls = 0;
+        // effects of the body itself, calls aside
+        private boolean sideEffects = false;
+        private boolean mayTrap = false;
+        private boolean writes = false;
+        private boolean loops = false;
+        private boolean pure = true;
+        private boolean speculatable = true;
+        private boolean readOnly = true;
+        private boolean willReturn = true;
+        // global variables used by the body or any callee
+        private final Set<String> globals = new HashSet<>();
+        // tarjan
+        private int index = -1;
+        private int lowlink;
+        private boolean onStack = false;
+
+        Node(String name, SysYParser.FuncDefContext def) {
+            this.name = name;
+            this.def = def;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public SysYParser.FuncDefContext getDef() {
+            return def;
+        }
+
+        public List<String> getCallees() {
+            return callees;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public boolean isRecursive() {
+            return recursive;
+        }
+
+        // some return statement returns a call to the function itself
+        public boolean hasSelfTailCall() {
+            return selfTailCalls > 0;
+        }
+
+        public boolean isPure() {
+            return pure;
+        }
+
+        public boolean isSpeculatable() {
+            return speculatable;
+        }
+
+        // pure, recursive and taking and returning ints: worth a memo table.
+        // self tail calls already become a loop, the table would undo that
+        public boolean isMemoizable() {
+            return pure && recursive && selfTailCalls == 0
+                    && def.funcType().INT() != null && def.funcFParams() != null;
+        }
+    }
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final int threshold;
+    private final List<String> report = new ArrayList<>();
+    private final Map<String, Integer> inlinedCount = new HashMap<>();
+
+    public CallGraph(SysYParser.ProgramContext program, int threshold) {
+        this.threshold = threshold;
+        for (var unit : program.compUnit().funcDef()) {
+            var node = new Node(unit.IDENT().getText(), unit);
+            nodes.put(node.name, node);
+            node.size = measure(node, unit.block());
+        }
+        findRecursion();
+        findPurity(program);
+    }
+
+    // instructions a statement or expression turns into, roughly
+    public static int estimateSize(ParseTree tree) {
+        return measure(null, tree);
+    }
+
+    // instructions the subtree turns into, roughly, and the calls in it if node is given
+    private static int measure(Node node, ParseTree tree) {
+        int size = 0;
+        if (tree instanceof SysYParser.ExpContext) {
+            var exp = (SysYParser.ExpContext) tree;
+            if (exp.IDENT() != null) {
+                if (node != null) {
+                    node.callees.add(exp.IDENT().getText());
+                }
+                size++;
+            } else if (exp.lVal() != null || exp.unaryOp() != null || exp.exp().size() == 2) {
+                size++;
+            }
+        } else if (tree instanceof SysYParser.CondContext) {
+            size++;
+        } else if (tree instanceof SysYParser.StmtContext) {
+            var stmt = (SysYParser.StmtContext) tree;
+            var call = getTailCall(stmt);
+            if (node != null && call != null && call.IDENT().getText().equals(node.name)) {
+                node.selfTailCalls++;
+            }
+            if (stmt.ASSIGN() != null || stmt.RETURN() != null || stmt.BREAK() != null
+                    || stmt.CONTINUE() != null || stmt.IF() != null) {
+                size++;
+            } else if (stmt.WHILE() != null) {
+                size += 2;
+            }
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            size += measure(node, tree.getChild(i));
+        }
+        return size;
+    }
+
+    // the call in `return f(...);`, null for any other statement
+    public static SysYParser.ExpContext getTailCall(SysYParser.StmtContext stmt) {
+        if (stmt.RETURN() == null || stmt.exp() == null) {
+            return null;
+        }
+        var exp = stmt.exp();
+        while (exp.L_PAREN() != null && exp.IDENT() == null) {
+            exp = exp.exp(0);
+        }
+        return exp.IDENT() != null ? exp : null;
+    }
+
+    private void findRecursion() {
+        int[] counter = { 0 };
+        var stack = new Stack<Node>();
+        for (var node : nodes.values()) {
+            if (node.index < 0) {
+                strongConnect(node, counter, stack);
+            }
+        }
+    }
+
+    private void strongConnect(Node v, int[] counter, Stack<Node> stack) {
+        v.index = v.lowlink = counter[0]++;
+        stack.push(v);
+        v.onStack = true;
+        for (var name : v.callees) {
+            var w = nodes.get(name);
+            if (w == null) {
+                continue; // library function
+            }
+            if (w == v) {
+                v.recursive = true;
+            }
+            if (w.index < 0) {
+                strongConnect(w, counter, stack);
+                v.lowlink = Math.min(v.lowlink, w.lowlink);
+            } else if (w.onStack) {
+                v.lowlink = Math.min(v.lowlink, w.index);
+            }
+        }
+        if (v.lowlink == v.index) {
+            var scc = new ArrayList<Node>();
+            Node w;
+            do {
+                w = stack.pop();
+                w.onStack = false;
+                scc.add(w);
+            } while (w != v);
+            if (scc.size() > 1) {
+                for (var n : scc) {
+                    n.recursive = true;
+                }
+            }
+        }
+    }
+
+    private void findPurity(SysYParser.ProgramContext program) {
+        var globalVars = new HashSet<String>();
+        var globalConsts = new HashMap<String, Integer>();
+        for (var decl : program.compUnit().decl()) {
+            if (decl.varDecl() != null) {
+                for (var def : decl.varDecl().varDef()) {
+                    globalVars.add(def.IDENT().getText());
+                }
+            } else {
+                for (var def : decl.constDecl().constDef()) {
+                    if (def.constExp().isEmpty() && def.constInitVal().constExp() != null) {
+                        var v = ConstExp.eval(def.constInitVal().constExp().exp(), globalConsts::get);
+                        if (v != null) {
+                            globalConsts.put(def.IDENT().getText(), v);
+                        }
+                    }
+                }
+            }
+        }
+        for (var node : nodes.values()) {
+            var scopes = new ArrayDeque<Set<String>>();
+            var params = new HashSet<String>();
+            if (node.def.funcFParams() != null) {
+                for (var param : node.def.funcFParams().funcFParam()) {
+                    params.add(param.IDENT().getText());
+                    if (param.L_BRACKT().size() > 0 || param.bType().INT() == null) {
+                        node.sideEffects = true; // reads caller memory
+                    }
+                }
+            }
+            scopes.push(params);
+            findEffects(node, node.def.block(), scopes, globalVars, globalConsts);
+            node.pure = !node.sideEffects;
+            node.speculatable = node.pure && !node.mayTrap && !node.recursive;
+            node.readOnly = !node.writes;
+            node.willReturn = !node.loops && !node.recursive;
+        }
+        // optimistic for cycles: drop whatever calls something that is not
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (var node : nodes.values()) {
+                for (var name : node.callees) {
+                    var callee = nodes.get(name);
+                    if (node.pure && (callee == null || !callee.pure)) {
+                        node.pure = false;
+                        changed = true;
+                    }
+                    if (node.speculatable && (callee == null || !callee.speculatable)) {
+                        node.speculatable = false;
+                        changed = true;
+                    }
+                    if (node.readOnly && (callee == null || !callee.readOnly)) {
+                        node.readOnly = false;
+                        changed = true;
+                    }
+                    if (node.willReturn && (callee == null || !callee.willReturn)) {
+                        node.willReturn = false;
+                        changed = true;
+                    }
+                    if (callee != null && node.globals.addAll(callee.globals)) {
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isLocal(Deque<Set<String>> scopes, String name) {
+        for (var scope : scopes) {
+            if (scope.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // global reads and writes and possible traps in the subtree, names declared in scopes are locals
+    private void findEffects(Node node, ParseTree tree, Deque<Set<String>> scopes,
+            Set<String> globalVars, Map<String, Integer> globalConsts) {
+        if (tree instanceof SysYParser.BlockContext) {
+            scopes.push(new HashSet<>());
+            for (int i = 0; i < tree.getChildCount(); i++) {
+                findEffects(node, tree.getChild(i), scopes, globalVars, globalConsts);
+            }
+            scopes.pop();
+            return;
+        }
+        if (tree instanceof SysYParser.LValContext) {
+            var lVal = (SysYParser.LValContext) tree;
+            var name = lVal.IDENT().getText();
+            if (!isLocal(scopes, name) && globalVars.contains(name)) {
+                node.sideEffects = true; // reading mutable state counts too
+                node.globals.add(name);
+            }
+            node.mayTrap |= !lVal.exp().isEmpty(); // index may be out of bounds
+        } else if (tree instanceof SysYParser.StmtContext) {
+            var stmt = (SysYParser.StmtContext) tree;
+            if (stmt.ASSIGN() != null && !isLocal(scopes, stmt.lVal().IDENT().getText())) {
+                node.sideEffects = true;
+                node.writes = true;
+                node.globals.add(stmt.lVal().IDENT().getText());
+            }
+            // an element may be of an array param, caller memory
+            node.writes |= stmt.ASSIGN() != null && !stmt.lVal().exp().isEmpty();
+            node.mayTrap |= stmt.WHILE() != null;
+            node.loops |= stmt.WHILE() != null;
+        } else if (tree instanceof SysYParser.ExpContext) {
+            var exp = (SysYParser.ExpContext) tree;
+            if (exp.DIV() != null || exp.MOD() != null) {
+                var divisor = ConstExp.eval(exp.exp(1), name -> isLocal(scopes, name) ? null : globalConsts.get(name));
+                node.mayTrap |= divisor == null || divisor == 0;
+            }
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            findEffects(node, tree.getChild(i), scopes, globalVars, globalConsts);
+        }
+        // declared after its initializer, a use there is taken as the global
+        if (tree instanceof SysYParser.VarDefContext) {
+            scopes.peek().add(((SysYParser.VarDefContext) tree).IDENT().getText());
+        } else if (tree instanceof SysYParser.ConstDefContext) {
+            scopes.peek().add(((SysYParser.ConstDefContext) tree).IDENT().getText());
+        }
+    }
+
+    // whether some statement in the subtree assigns to name
+    public static boolean assigns(ParseTree tree, String name) {
+        if (tree instanceof SysYParser.StmtContext) {
+            var stmt = (SysYParser.StmtContext) tree;
+            if (stmt.ASSIGN() != null && stmt.lVal().IDENT().getText().equals(name)) {
+                return true;
+            }
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (assigns(tree.getChild(i), name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * instructions roughly saved in a copy of node whose params have the
+     * known values (null where unknown): one per use of such a param, and
+     * half the statement for a use in the condition of an if or while,
+     * which may then be decided at compile time.
+     */
+    public int getSpecializationBenefit(Node node, Integer[] known) {
+        var names = new HashSet<String>();
+        var params = node.def.funcFParams() != null ? node.def.funcFParams().funcFParam() : List.<SysYParser.FuncFParamContext>of();
+        for (int i = 0; i < params.size() && i < known.length; i++) {
+            if (known[i] != null) {
+                names.add(params.get(i).IDENT().getText());
+            }
+        }
+        return benefit(node.def.block(), names, 1);
+    }
+
+    private static int benefit(ParseTree tree, Set<String> names, int weight) {
+        int total = 0;
+        if (tree instanceof SysYParser.LValContext && names.contains(((SysYParser.LValContext) tree).IDENT().getText())) {
+            total += weight;
+        } else if (tree instanceof SysYParser.StmtContext && ((SysYParser.StmtContext) tree).cond() != null) {
+            var stmt = (SysYParser.StmtContext) tree;
+            total += benefit(stmt.cond(), names, 1 + estimateSize(stmt) / 2);
+            for (var sub : stmt.stmt()) {
+                total += benefit(sub, names, 1);
+            }
+            return total;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            total += benefit(tree.getChild(i), names, weight);
+        }
+        return total;
+    }
+
+    // whether a call to name may read or write the global variable, the runtime library uses none
+    public boolean touchesGlobal(String name, String global) {
+        var node = nodes.get(name);
+        return node != null && node.globals.contains(global);
+    }
+
+    /**
+     * LLVM function attributes that hold for node. With memoize set,
+     * memoizable functions write their tables, so neither they nor their
+     * callers get readnone or readonly.
+     */
+    public List<String> getAttributes(Node node, boolean memoize) {
+        var attrs = new ArrayList<String>();
+        attrs.add("nounwind"); // SysY has no exceptions
+        if (!node.recursive) {
+            attrs.add("norecurse");
+        }
+        if (!memoize || !reachesMemoizable(node, new HashSet<>())) {
+            if (node.pure) {
+                attrs.add("readnone");
+            } else if (node.readOnly) {
+                attrs.add("readonly");
+            }
+        }
+        if (node.willReturn) {
+            attrs.add("willreturn");
+        }
+        return attrs;
+    }
+
+    private boolean reachesMemoizable(Node node, Set<Node> visited) {
+        if (!visited.add(node)) {
+            return false;
+        }
+        if (node.isMemoizable()) {
+            return true;
+        }
+        for (var name : node.callees) {
+            var callee = nodes.get(name);
+            if (callee != null && reachesMemoizable(callee, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Node getNode(String name) {
+        return nodes.get(name);
+    }
+
+    // size of the body once its own inlinable calls are expanded
+    public synchronized int getInlinedSize(Node node) {
+        if (node.inlinedSize < 0) {
+            int size = node.size;
+            for (var name : node.callees) {
+                var callee = nodes.get(name);
+                if (callee != null && callee != node && isInlinable(callee)) {
+                    size += getInlinedSize(callee) - 1;
+                }
+            }
+            node.inlinedSize = size;
+        }
+        return node.inlinedSize;
+    }
+
+    private boolean isInlinable(Node callee) {
+        return !callee.recursive && !callee.name.equals("main") && getInlinedSize(callee) <= threshold;
+    }
+
+    /**
+     * decide about one call site and note the decision for the report.
+     * returns the callee's node if the call should be inlined, null if not.
+     */
+    public synchronized Node inlineAt(String caller, String calleeName) {
+        var callee = nodes.get(calleeName);
+        if (callee == null || threshold <= 0) {
+            return null;
+        }
+        if (callee.recursive) {
+            report.add(String.format("%s: kept call to %s (recursive)", caller, calleeName));
+            return null;
+        }
+        if (!isInlinable(callee)) {
+            report.add(String.format("%s: kept call to %s (size %d > %d)",
+                    caller, calleeName, getInlinedSize(callee), threshold));
+            return null;
+        }
+        report.add(String.format("%s: inlined %s (size %d)", caller, calleeName, getInlinedSize(callee)));
+        inlinedCount.merge(calleeName, 1, Integer::sum);
+        return callee;
+    }
+
+    public void printReport(PrintStream out) {
+        out.println("inline report (threshold " + threshold + "):");
+        for (var line : report) {
+            out.println("  " + line);
+        }
+        for (var node : nodes.values()) {
+            out.printf("  %s: size %d, inlined at %d call sites%s%n", node.name, getInlinedSize(node),
+                    inlinedCount.getOrDefault(node.name, 0), node.recursive ? ", recursive" : "");
+        }
+    }
+}
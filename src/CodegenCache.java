@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * On disk store of the bitcode of ParallelCodegen's parts, one file per
+ * part named by the SHA-256 of everything its code depends on: the tokens
+ * of the function and of every top level function or global declaration
+ * whose name it uses, transitively (callees are inlined, specialized,
+ * run at compile time and decide the function's attributes), plus the
+ * options that change generation. A part whose key has a file is read
+ * back instead of being generated. Files are written under a temporary
+ * name and moved into place, so compiles sharing the directory never
+ * see half a file.
+ */
+public class CodegenCache {
+    // bump whenever the generated code changes for the same source
+    private static final String VERSION = "1";
+
+    private final Path dir;
+    private final String options;
+    private final Map<String, ParseTree> topLevel = new HashMap<>(); // function or decl by name
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public CodegenCache(SysYParser.ProgramContext program, CompilerOptions options) {
+        this.dir = Paths.get(options.cacheDir);
+        this.options = options.codegenKey();
+        for (var child : program.compUnit().children) {
+            if (child instanceof SysYParser.FuncDefContext) {
+                var def = (SysYParser.FuncDefContext) child;
+                topLevel.put(def.IDENT().getText(), def);
+            } else if (child instanceof SysYParser.DeclContext) {
+                var decl = (SysYParser.DeclContext) child;
+                if (decl.constDecl() != null) {
+                    for (var def : decl.constDecl().constDef()) {
+                        topLevel.put(def.IDENT().getText(), decl);
+                    }
+                } else {
+                    for (var def : decl.varDecl().varDef()) {
+                        topLevel.put(def.IDENT().getText(), decl);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * key of the part generating def, or the global variables for def
+     * null. the top level items reached are hashed in source order.
+     */
+    public String key(SysYParser.FuncDefContext def) {
+        var items = new TreeMap<Integer, ParseTree>(); // by first token
+        var work = new ArrayDeque<ParseTree>();
+        if (def != null) {
+            work.add(def);
+        } else {
+            for (var item : topLevel.values()) {
+                if (item instanceof SysYParser.DeclContext) {
+                    work.add(item);
+                }
+            }
+        }
+        while (!work.isEmpty()) {
+            var item = work.poll();
+            int start = item.getSourceInterval().a;
+            if (items.putIfAbsent(start, item) == null) {
+                collectNames(item, work);
+            }
+        }
+
+        var text = new StringBuilder(VERSION).append('\0').append(options).append('\0');
+        text.append(def != null ? def.IDENT().getText() : "").append('\0');
+        for (var item : items.values()) {
+            appendTokens(item, text);
+            text.append('\0');
+        }
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(text.toString().getBytes(StandardCharsets.UTF_8));
+            var hex = new StringBuilder();
+            for (var b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error(e);
+        }
+    }
+
+    // top level items named anywhere in tree
+    private void collectNames(ParseTree tree, ArrayDeque<ParseTree> work) {
+        if (tree instanceof TerminalNode) {
+            var token = ((TerminalNode) tree).getSymbol();
+            if (token.getType() == SysYLexer.IDENT && topLevel.containsKey(token.getText())) {
+                work.add(topLevel.get(token.getText()));
+            }
+            return;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectNames(tree.getChild(i), work);
+        }
+    }
+
+    // separated, so layout and comments do not matter but token boundaries do
+    private static void appendTokens(ParseTree tree, StringBuilder text) {
+        if (tree instanceof TerminalNode) {
+            text.append(tree.getText()).append(' ');
+            return;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            appendTokens(tree.getChild(i), text);
+        }
+    }
+
+    private Path pathOf(String key) {
+        return dir.resolve(key + ".bc");
+    }
+
+    // bitcode stored for key, null on a miss
+    public byte[] get(String key) {
+        var path = pathOf(key);
+        if (Files.isRegularFile(path)) {
+            try {
+                var bytes = Files.readAllBytes(path);
+                hits.incrementAndGet();
+                return bytes;
+            } catch (IOException e) {
+                // unreadable, generate it again
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    // a failed write only costs the next compile a miss
+    public void put(String key, byte[] bitcode) {
+        try {
+            Files.createDirectories(dir);
+            var tmp = Files.createTempFile(dir, key, ".tmp");
+            Files.write(tmp, bitcode);
+            Files.move(tmp, pathOf(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("codegen cache: cannot store " + key + ": " + e.getMessage());
+        }
+    }
+
+    public String getSummary() {
+        return String.format("codegen cache: %d hits, %d misses", hits.get(), misses.get());
+    }
+}
@@ -0,0 +1,144 @@
+public class CompilerOptions {
+    // 0 means no limit
+    public int maxErrors = 0;
+    // scalars in registers with phis instead of allocas
+    public boolean ssa = false;
+    // -O0 .. -O3, selects the default<On> llvm pipeline
+    public int optLevel = 0;
+    public boolean timePasses = false;
+    // go through the java side MidIR and its passes before llvm
+    public boolean midir = false;
+    public String midirPasses = MidIRPasses.DEFAULT_PIPELINE;
+    public boolean dumpMidir = false;
+    // inline non recursive functions up to this size, -1 picks by optLevel
+    public int inlineThreshold = -1;
+    public boolean inlineReport = false;
+    // counted loops: size budget for the unrolled code and copies per iteration
+    // of a partially unrolled loop, -1 picks by optLevel
+    public int unrollLimit = -1;
+    public int unrollFactor = -1;
+    // while loops as a guard and a bottom tested loop, null picks by optLevel
+    public Boolean invertLoops = null;
+    // globals in locals over loops and functions no call in them can touch, null picks by optLevel
+    public Boolean promoteGlobals = null;
+    // everything but main internal, unreachable symbols dropped, read only globals constant
+    public boolean wholeProgram = false;
+    // slots of the result table given to pure recursive functions, 0 is off
+    public int memoSize = 0;
+    // budget for running a pure call with constant args at compile time, 0 is off
+    public int constEvalSteps = 100000;
+    // clones of functions for constant args at call sites, -1 picks by optLevel
+    public int specializeLimit = -1;
+    // threads generating functions into separate modules, 1 generates in one module
+    public int jobs = 1;
+    // directory of bitcode per function, reused when the function and what it uses are unchanged
+    public String cacheDir = null;
+    public String source;
+    public String target;
+
+    private static int parseInt(String arg, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad value for " + arg + ": " + value);
+        }
+    }
+
+    // everything above that changes the code generated for a function, see CodegenCache
+    public String codegenKey() {
+        return String.format("ssa=%b inline=%d unroll=%d/%d invert=%b promote=%b memo=%d eval=%d specialize=%d",
+                ssa, inlineThreshold, unrollLimit, unrollFactor, invertLoops, promoteGlobals, memoSize,
+                constEvalSteps, specializeLimit);
+    }
+
+    public static CompilerOptions parse(String[] args) {
+        var opts = new CompilerOptions();
+        for (var arg : args) {
+            if (arg.startsWith("--max-errors=")) {
+                opts.maxErrors = parseInt(arg, arg.substring("--max-errors=".length()));
+            } else if (arg.matches("-O[0-3]")) {
+                opts.optLevel = arg.charAt(2) - '0';
+            } else if (arg.equals("--time-passes")) {
+                opts.timePasses = true;
+            } else if (arg.equals("--ssa")) {
+                opts.ssa = true;
+            } else if (arg.startsWith("--inline-threshold=")) {
+                opts.inlineThreshold = parseInt(arg, arg.substring("--inline-threshold=".length()));
+            } else if (arg.startsWith("--unroll-limit=")) {
+                opts.unrollLimit = parseInt(arg, arg.substring("--unroll-limit=".length()));
+            } else if (arg.startsWith("--unroll-factor=")) {
+                opts.unrollFactor = parseInt(arg, arg.substring("--unroll-factor=".length()));
+            } else if (arg.equals("--invert-loops")) {
+                opts.invertLoops = true;
+            } else if (arg.equals("--no-invert-loops")) {
+                opts.invertLoops = false;
+            } else if (arg.equals("--promote-globals")) {
+                opts.promoteGlobals = true;
+            } else if (arg.equals("--no-promote-globals")) {
+                opts.promoteGlobals = false;
+            } else if (arg.equals("--whole-program")) {
+                opts.wholeProgram = true;
+            } else if (arg.equals("--memoize")) {
+                opts.memoSize = 4096;
+            } else if (arg.startsWith("--memoize=")) {
+                opts.memoSize = parseInt(arg, arg.substring("--memoize=".length()));
+            } else if (arg.startsWith("--const-eval-steps=")) {
+                opts.constEvalSteps = parseInt(arg, arg.substring("--const-eval-steps=".length()));
+            } else if (arg.startsWith("--specialize-limit=")) {
+                opts.specializeLimit = parseInt(arg, arg.substring("--specialize-limit=".length()));
+            } else if (arg.startsWith("--jobs=")) {
+                opts.jobs = parseInt(arg, arg.substring("--jobs=".length()));
+                if (opts.jobs < 1) {
+                    throw new IllegalArgumentException("bad value for " + arg + ": " + opts.jobs);
+                }
+            } else if (arg.startsWith("--cache-dir=")) {
+                opts.cacheDir = arg.substring("--cache-dir=".length());
+            } else if (arg.equals("--inline-report")) {
+                opts.inlineReport = true;
+            } else if (arg.equals("--midir")) {
+                opts.midir = true;
+            } else if (arg.startsWith("--midir-passes=")) {
+                opts.midir = true;
+                opts.midirPasses = arg.substring("--midir-passes=".length());
+                for (var name : opts.midirPasses.split(",")) {
+                    if (!name.isEmpty()) {
+                        MidIRPasses.create(name); // unknown names fail here, not after the front end
+                    }
+                }
+            } else if (arg.equals("--dump-midir")) {
+                opts.midir = true;
+                opts.dumpMidir = true;
+            } else if (arg.startsWith("-")) {
+                throw new IllegalArgumentException("unknown option " + arg);
+            } else if (opts.source == null) {
+                opts.source = arg;
+            } else if (opts.target == null) {
+                opts.target = arg;
+            } else {
+                throw new IllegalArgumentException("unexpected argument " + arg);
+            }
+        }
+        if (opts.source == null || opts.target == null) {
+            throw new IllegalArgumentException("input path is required");
+        }
+        if (opts.inlineThreshold < 0) {
+            opts.inlineThreshold = opts.optLevel > 0 ? 30 : 0;
+        }
+        if (opts.unrollLimit < 0) {
+            opts.unrollLimit = opts.optLevel >= 2 ? 128 : 0;
+        }
+        if (opts.specializeLimit < 0) {
+            opts.specializeLimit = opts.optLevel >= 2 ? 8 : 0;
+        }
+        if (opts.promoteGlobals == null) {
+            opts.promoteGlobals = opts.optLevel > 0;
+        }
+        if (opts.invertLoops == null) {
+            opts.invertLoops = opts.optLevel > 0;
+        }
+        if (opts.unrollFactor < 0) {
+            opts.unrollFactor = 4;
+        }
+        return opts;
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Folding of constant expressions on the tree, for decisions taken before
+ * any code exists (trip counts, switch cases), and of initializers and
+ * call arguments when calls can be run at compile time.
+ */
+public class ConstExp {
+    /**
+     * value of a constant int expression, null if it is not one. consts maps
+     * the name of a constant visible at the expression to its value.
+     */
+    public static Integer eval(SysYParser.ExpContext ctx, Function<String, Integer> consts) {
+        return eval(ctx, consts, null);
+    }
+
+    /**
+     * same, calls are given to calls with their constant args and are
+     * constant when it returns a value (see ConstInterpreter).
+     */
+    public static Integer eval(SysYParser.ExpContext ctx, Function<String, Integer> consts,
+            BiFunction<String, List<Integer>, Integer> calls) {
+        if (ctx.L_PAREN() != null && ctx.IDENT() == null) {
+            return eval(ctx.exp(0), consts, calls);
+        } else if (ctx.IDENT() != null) {
+            return calls != null ? evalCall(ctx, consts, calls) : null;
+        } else if (ctx.number() != null) {
+            return ctx.number().INTEGER_CONST() != null ? Integer.decode(ctx.number().getText()) : null;
+        } else if (ctx.lVal() != null) {
+            return ctx.lVal().exp().isEmpty() ? consts.apply(ctx.lVal().IDENT().getText()) : null;
+        } else if (ctx.unaryOp() != null) {
+            var v = eval(ctx.exp(0), consts, calls);
+            if (v == null || ctx.unaryOp().PLUS() != null) {
+                return v;
+            }
+            return ctx.unaryOp().MINUS() != null ? -v : (v == 0 ? 1 : 0);
+        } else if (ctx.exp().size() == 2) {
+            var a = eval(ctx.exp(0), consts, calls);
+            var b = eval(ctx.exp(1), consts, calls);
+            if (a == null || b == null) {
+                return null;
+            }
+            if (ctx.MUL() != null) {
+                return a * b;
+            } else if (ctx.DIV() != null) {
+                return b == 0 ? null : a / b;
+            } else if (ctx.MOD() != null) {
+                return b == 0 ? null : a % b;
+            } else if (ctx.PLUS() != null) {
+                return a + b;
+            } else {
+                return a - b;
+            }
+        }
+        return null;
+    }
+
+    private static Integer evalCall(SysYParser.ExpContext ctx, Function<String, Integer> consts,
+            BiFunction<String, List<Integer>, Integer> calls) {
+        var args = new ArrayList<Integer>();
+        if (ctx.funcRParams() != null) {
+            for (var param : ctx.funcRParams().param()) {
+                var v = eval(param.exp(), consts, calls);
+                if (v == null) {
+                    return null;
+                }
+                args.add(v);
+            }
+        }
+        return calls.apply(ctx.IDENT().getText(), args);
+    }
+}
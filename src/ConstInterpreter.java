@@ -0,0 +1,295 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Runs calls to pure functions (see CallGraph) on the tree at compile
+ * time, so a call with constant arguments can be replaced by its result.
+ * Only int scalars are handled. Every top level call gets a budget of
+ * steps (statements and expressions evaluated) and a limit on the depth
+ * of nested calls; running out, a division that would trap or anything
+ * not handled gives up and the call is left in the program.
+ */
+public class ConstInterpreter {
+    public static final int MAX_DEPTH = 100;
+
+    private final CallGraph callGraph;
+    private final Function<String, Integer> globalConsts;
+    private final int maxSteps;
+    private final Map<String, Map<List<Integer>, Integer>> results = new HashMap<>(); // null: gave up
+    private int steps;
+    private int depth;
+
+    private static class GiveUp extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        GiveUp() {
+            super(null, null, false, false);
+        }
+    }
+
+    private enum Flow {
+        NEXT, BREAK, CONTINUE, RETURN
+    }
+
+    // one activation: the scopes of its blocks and the value being returned
+    private static class Frame {
+        private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+        private int result = 0;
+
+        Integer lookup(String name) {
+            for (var scope : scopes) {
+                if (scope.containsKey(name)) {
+                    return scope.get(name);
+                }
+            }
+            return null;
+        }
+
+        boolean assign(String name, int value) {
+            for (var scope : scopes) {
+                if (scope.containsKey(name)) {
+                    scope.put(name, value);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public ConstInterpreter(CallGraph callGraph, Function<String, Integer> globalConsts, int maxSteps) {
+        this.callGraph = callGraph;
+        this.globalConsts = globalConsts;
+        this.maxSteps = maxSteps;
+    }
+
+    /**
+     * result of name(args), null if the function is not pure, does not
+     * return an int or could not be run within the limits.
+     */
+    public Integer call(String name, List<Integer> args) {
+        var node = callGraph.getNode(name);
+        if (maxSteps <= 0 || node == null || !node.isPure() || node.getDef().funcType().INT() == null) {
+            return null;
+        }
+        var cache = results.computeIfAbsent(name, k -> new HashMap<>());
+        if (cache.containsKey(args)) {
+            return cache.get(args);
+        }
+        Integer result;
+        steps = 0;
+        depth = 0;
+        try {
+            result = invoke(node.getDef(), args);
+        } catch (GiveUp | StackOverflowError e) {
+            result = null;
+        }
+        cache.put(List.copyOf(args), result);
+        return result;
+    }
+
+    private void step() {
+        if (++steps > maxSteps) {
+            throw new GiveUp();
+        }
+    }
+
+    private int invoke(SysYParser.FuncDefContext def, List<Integer> args) {
+        if (++depth > MAX_DEPTH) {
+            throw new GiveUp();
+        }
+        var frame = new Frame();
+        var params = new HashMap<String, Integer>();
+        if (def.funcFParams() != null) {
+            var funcFParams = def.funcFParams().funcFParam();
+            if (funcFParams.size() != args.size()) {
+                throw new GiveUp();
+            }
+            for (int i = 0; i < funcFParams.size(); i++) {
+                params.put(funcFParams.get(i).IDENT().getText(), args.get(i));
+            }
+        }
+        frame.scopes.push(params);
+        exec(frame, def.block());
+        depth--;
+        return frame.result; // falling off the end gives 0, as the generators do
+    }
+
+    private Flow exec(Frame frame, SysYParser.BlockContext block) {
+        frame.scopes.push(new HashMap<>());
+        try {
+            for (var item : block.blockItem()) {
+                if (item.decl() != null) {
+                    declare(frame, item.decl());
+                } else {
+                    var flow = exec(frame, item.stmt());
+                    if (flow != Flow.NEXT) {
+                        return flow;
+                    }
+                }
+            }
+            return Flow.NEXT;
+        } finally {
+            frame.scopes.pop();
+        }
+    }
+
+    private void declare(Frame frame, SysYParser.DeclContext decl) {
+        if (decl.constDecl() != null) {
+            if (decl.constDecl().bType().INT() == null) {
+                throw new GiveUp();
+            }
+            for (var def : decl.constDecl().constDef()) {
+                if (!def.constExp().isEmpty()) {
+                    throw new GiveUp();
+                }
+                int v = eval(frame, def.constInitVal().constExp().exp());
+                frame.scopes.peek().put(def.IDENT().getText(), v);
+            }
+        } else {
+            if (decl.varDecl().bType().INT() == null) {
+                throw new GiveUp();
+            }
+            for (var def : decl.varDecl().varDef()) {
+                if (!def.constExp().isEmpty()) {
+                    throw new GiveUp();
+                }
+                int v = def.initVal() != null ? eval(frame, def.initVal().exp()) : 0;
+                frame.scopes.peek().put(def.IDENT().getText(), v);
+            }
+        }
+    }
+
+    private Flow exec(Frame frame, SysYParser.StmtContext stmt) {
+        step();
+        if (stmt.ASSIGN() != null) {
+            if (!stmt.lVal().exp().isEmpty()) {
+                throw new GiveUp();
+            }
+            int v = eval(frame, stmt.exp());
+            if (!frame.assign(stmt.lVal().IDENT().getText(), v)) {
+                throw new GiveUp(); // a global, pure functions have none
+            }
+        } else if (stmt.RETURN() != null) {
+            frame.result = stmt.exp() != null ? eval(frame, stmt.exp()) : 0;
+            return Flow.RETURN;
+        } else if (stmt.BREAK() != null) {
+            return Flow.BREAK;
+        } else if (stmt.CONTINUE() != null) {
+            return Flow.CONTINUE;
+        } else if (stmt.IF() != null) {
+            if (test(frame, stmt.cond())) {
+                return exec(frame, stmt.stmt(0));
+            } else if (stmt.ELSE() != null) {
+                return exec(frame, stmt.stmt(1));
+            }
+        } else if (stmt.WHILE() != null) {
+            while (test(frame, stmt.cond())) {
+                var flow = exec(frame, stmt.stmt(0));
+                if (flow == Flow.BREAK) {
+                    break;
+                } else if (flow == Flow.RETURN) {
+                    return flow;
+                }
+            }
+        } else if (stmt.block() != null) {
+            return exec(frame, stmt.block());
+        } else if (stmt.exp() != null) {
+            eval(frame, stmt.exp());
+        }
+        return Flow.NEXT;
+    }
+
+    private boolean test(Frame frame, SysYParser.CondContext cond) {
+        step();
+        if (cond.exp() != null) {
+            return eval(frame, cond.exp()) != 0;
+        } else if (cond.AND() != null) {
+            return test(frame, cond.cond(0)) && test(frame, cond.cond(1));
+        } else if (cond.OR() != null) {
+            return test(frame, cond.cond(0)) || test(frame, cond.cond(1));
+        }
+        int a = value(frame, cond.cond(0));
+        int b = value(frame, cond.cond(1));
+        if (cond.LT() != null) {
+            return a < b;
+        } else if (cond.GT() != null) {
+            return a > b;
+        } else if (cond.LE() != null) {
+            return a <= b;
+        } else if (cond.GE() != null) {
+            return a >= b;
+        } else if (cond.EQ() != null) {
+            return a == b;
+        }
+        return a != b;
+    }
+
+    // a cond used as an operand of a comparison is its int value, 0 or 1 for a nested test
+    private int value(Frame frame, SysYParser.CondContext cond) {
+        if (cond.exp() != null) {
+            return eval(frame, cond.exp());
+        }
+        return test(frame, cond) ? 1 : 0;
+    }
+
+    private int eval(Frame frame, SysYParser.ExpContext exp) {
+        step();
+        if (exp.L_PAREN() != null && exp.IDENT() == null) {
+            return eval(frame, exp.exp(0));
+        } else if (exp.number() != null) {
+            if (exp.number().FLOAT_CONST() != null) {
+                throw new GiveUp();
+            }
+            return Integer.decode(exp.number().getText());
+        } else if (exp.lVal() != null) {
+            if (!exp.lVal().exp().isEmpty()) {
+                throw new GiveUp();
+            }
+            var name = exp.lVal().IDENT().getText();
+            var v = frame.lookup(name);
+            if (v == null) {
+                v = globalConsts.apply(name);
+            }
+            if (v == null) {
+                throw new GiveUp();
+            }
+            return v;
+        } else if (exp.IDENT() != null) {
+            var node = callGraph.getNode(exp.IDENT().getText());
+            if (node == null || !node.isPure() || node.getDef().funcType().INT() == null) {
+                throw new GiveUp(); // a float result is not run with int semantics
+            }
+            var args = new ArrayList<Integer>();
+            if (exp.funcRParams() != null) {
+                for (var param : exp.funcRParams().param()) {
+                    args.add(eval(frame, param.exp()));
+                }
+            }
+            return invoke(node.getDef(), args);
+        } else if (exp.unaryOp() != null) {
+            int v = eval(frame, exp.exp(0));
+            if (exp.unaryOp().NOT() != null) {
+                return v == 0 ? 1 : 0;
+            }
+            return exp.unaryOp().MINUS() != null ? -v : v;
+        }
+        int a = eval(frame, exp.exp(0));
+        int b = eval(frame, exp.exp(1));
+        if (exp.MUL() != null) {
+            return a * b;
+        } else if (exp.DIV() != null || exp.MOD() != null) {
+            if (b == 0 || (a == Integer.MIN_VALUE && b == -1)) {
+                throw new GiveUp(); // traps at run time
+            }
+            return exp.DIV() != null ? a / b : a % b;
+        } else if (exp.PLUS() != null) {
+            return a + b;
+        }
+        return a - b;
+    }
+}
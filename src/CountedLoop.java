@@ -0,0 +1,189 @@
+import java.util.function.Function;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * A while loop whose trip count is known at compile time:
+ *
+ *     i = a;              (or int i = a;)
+ *     ...                 (nothing writing i)
+ *     while (i < b) {     (or i <= b)
+ *         ...
+ *         i = i + 1;
+ *     }
+ *
+ * with a and b constant, the increment as the last statement of the body
+ * and no other write to i, no declaration of another i beside it and no
+ * break or continue of this loop inside the body. An i declared in a
+ * nested block is another variable there, its writes do not count. Found
+ * on the tree, the generators use it to unroll. Whether i is a local (a
+ * call could change a global) is left to the caller.
+ */
+public class CountedLoop {
+    private final SysYParser.StmtContext loop;
+    private final String var;
+    private final int init;
+    private final int end; // exclusive
+
+    private CountedLoop(SysYParser.StmtContext loop, String var, int init, int end) {
+        this.loop = loop;
+        this.var = var;
+        this.init = init;
+        this.end = end;
+    }
+
+    public SysYParser.StmtContext getLoop() {
+        return loop;
+    }
+
+    public SysYParser.StmtContext getBody() {
+        return loop.stmt(0);
+    }
+
+    public String getVar() {
+        return var;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public long getTripCount() {
+        return Math.max(0, (long) end - init);
+    }
+
+    public int getBodySize() {
+        return CallGraph.estimateSize(getBody());
+    }
+
+    private static boolean isVar(SysYParser.LValContext ctx, String var) {
+        return ctx != null && ctx.exp().isEmpty() && ctx.IDENT().getText().equals(var);
+    }
+
+    private static boolean isVar(SysYParser.ExpContext ctx, String var) {
+        return ctx != null && isVar(ctx.lVal(), var);
+    }
+
+    public static CountedLoop match(SysYParser.StmtContext loop, Function<String, Integer> consts) {
+        if (loop.WHILE() == null || !(loop.getParent() instanceof SysYParser.BlockItemContext)) {
+            return null;
+        }
+        var item = (SysYParser.BlockItemContext) loop.getParent();
+        var items = ((SysYParser.BlockContext) item.getParent()).blockItem();
+        int k = items.indexOf(item);
+
+        // while (i < b) or while (i <= b)
+        var cond = loop.cond();
+        if ((cond.LT() == null && cond.LE() == null) || cond.cond(0).exp() == null
+                || cond.cond(0).exp().lVal() == null || cond.cond(1).exp() == null) {
+            return null;
+        }
+        String var = cond.cond(0).exp().lVal().IDENT().getText();
+        var bound = ConstExp.eval(cond.cond(1).exp(), consts);
+        if (bound == null || (cond.LE() != null && bound == Integer.MAX_VALUE)) {
+            return null;
+        }
+        int end = cond.LE() != null ? bound + 1 : bound;
+
+        // the closest item before that sets the start value, items in between must leave it alone
+        SysYParser.ExpContext initExp = null;
+        for (int j = k - 1; j >= 0 && initExp == null; j--) {
+            var prev = items.get(j);
+            if (prev.stmt() != null && prev.stmt().ASSIGN() != null && isVar(prev.stmt().lVal(), var)) {
+                initExp = prev.stmt().exp();
+            } else if (prev.decl() != null && prev.decl().varDecl() != null) {
+                for (var def : prev.decl().varDecl().varDef()) {
+                    if (def.IDENT().getText().equals(var)) {
+                        if (!def.constExp().isEmpty() || def.initVal() == null || def.initVal().exp() == null) {
+                            return null;
+                        }
+                        initExp = def.initVal().exp();
+                    }
+                }
+            }
+            if (initExp == null && !isClean(prev, var, false)) {
+                return null;
+            }
+        }
+        if (initExp == null) {
+            return null;
+        }
+        var init = ConstExp.eval(initExp, consts);
+        if (init == null) {
+            return null;
+        }
+
+        // body ends with i = i + 1, and touches i nowhere else
+        var body = loop.stmt(0).block();
+        if (body == null || body.blockItem().isEmpty()) {
+            return null;
+        }
+        var last = body.blockItem(body.blockItem().size() - 1).stmt();
+        if (last == null || last.ASSIGN() == null || !last.lVal().exp().isEmpty()
+                || !last.lVal().IDENT().getText().equals(var)) {
+            return null;
+        }
+        var step = last.exp();
+        if (step.PLUS() == null || step.exp().size() != 2 || !isVar(step.exp(0), var)
+                || !Integer.valueOf(1).equals(ConstExp.eval(step.exp(1), consts))) {
+            return null;
+        }
+        for (int i = 0; i < body.blockItem().size() - 1; i++) {
+            if (!isClean(body.blockItem(i), var, false)) {
+                return null;
+            }
+        }
+        return new CountedLoop(loop, var, init, end);
+    }
+
+    /**
+     * no write or declaration of var, no break/continue outside a nested
+     * loop. var is the loop's variable as seen where tree is; a nested
+     * block declaring its own var shadows it for the rest of that block, so
+     * writes there are to another variable (var is null from there on).
+     */
+    private static boolean isClean(ParseTree tree, String var, boolean inNestedLoop) {
+        if (tree instanceof SysYParser.BlockContext) {
+            for (var item : ((SysYParser.BlockContext) tree).blockItem()) {
+                if (var != null && item.decl() != null && declares(item.decl(), var)) {
+                    var = null;
+                }
+                if (!isClean(item, var, inNestedLoop)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (tree instanceof SysYParser.StmtContext) {
+            var stmt = (SysYParser.StmtContext) tree;
+            if (stmt.ASSIGN() != null && stmt.lVal().IDENT().getText().equals(var)) {
+                return false;
+            }
+            if ((stmt.BREAK() != null || stmt.CONTINUE() != null) && !inNestedLoop) {
+                return false;
+            }
+            inNestedLoop |= stmt.WHILE() != null;
+        } else if (tree instanceof SysYParser.VarDefContext) {
+            if (((SysYParser.VarDefContext) tree).IDENT().getText().equals(var)) {
+                return false;
+            }
+        } else if (tree instanceof SysYParser.ConstDefContext) {
+            if (((SysYParser.ConstDefContext) tree).IDENT().getText().equals(var)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (!isClean(tree.getChild(i), var, inNestedLoop)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean declares(SysYParser.DeclContext decl, String var) {
+        if (decl.constDecl() != null) {
+            return decl.constDecl().constDef().stream().anyMatch(def -> def.IDENT().getText().equals(var));
+        }
+        return decl.varDecl().varDef().stream().anyMatch(def -> def.IDENT().getText().equals(var));
+    }
+}
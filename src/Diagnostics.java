@@ -0,0 +1,130 @@
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+/**
+ * Buffers errors of every front end phase and prints them on flush().
+ * 
+ * The report that records the maxErrors-th error throws
+ * LimitReachedException after recording it, so the running phase stops
+ * instead of doing full work on an input already known to be bad.
+ */
+public class Diagnostics {
+    enum Dedup {
+        NONE, // keep everything
+        SAME_LINE, // keep the first error of a line
+        SAME_LINE_OTHER_TYPE, // on the same line only repeat the type printed last
+    }
+
+    enum Phase {
+        LEXER("Error type %s at Line %d: %s", true, Dedup.NONE),
+        PARSER("Error type %s at line %d: %s", false, Dedup.SAME_LINE),
+        CHECKER("Error type %s at line %d: %s", false, Dedup.SAME_LINE_OTHER_TYPE);
+
+        private final String format;
+        private final boolean stderr;
+        private final Dedup dedup;
+
+        Phase(String format, boolean stderr, Dedup dedup) {
+            this.format = format;
+            this.stderr = stderr;
+            this.dedup = dedup;
+        }
+    }
+
+    static class Record {
+        private final Phase phase;
+        private final String type;
+        private final int line;
+        private final String message;
+
+        Record(Phase phase, String type, int line, String message) {
+            this.phase = phase;
+            this.type = type;
+            this.line = line;
+            this.message = message;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(phase.format, type, line, message);
+        }
+    }
+
+    static class LimitReachedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LimitReachedException(int limit) {
+            super("too many errors emitted (" + limit + "), stopping now");
+        }
+    }
+
+    private final int maxErrors;
+    private final List<Record> records = new ArrayList<>();
+    private final EnumMap<Phase, Record> last = new EnumMap<>(Phase.class);
+    private int flushed = 0;
+
+    public Diagnostics(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    public void report(Phase phase, String type, int line, String message) {
+        var prev = last.get(phase);
+        if (prev != null && prev.line == line) {
+            if (phase.dedup == Dedup.SAME_LINE
+                    || (phase.dedup == Dedup.SAME_LINE_OTHER_TYPE && !prev.type.equals(type))) {
+                return;
+            }
+        }
+        var record = new Record(phase, type, line, message);
+        records.add(record);
+        last.put(phase, record);
+        if (maxErrors > 0 && records.size() >= maxErrors) {
+            throw new LimitReachedException(maxErrors);
+        }
+    }
+
+    public void report(Phase phase, int type, int line, String message) {
+        report(phase, String.valueOf(type), line, message);
+    }
+
+    public boolean hasErrors() {
+        return !records.isEmpty();
+    }
+
+    public boolean hasErrors(Phase phase) {
+        return last.containsKey(phase);
+    }
+
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    // print records that were not printed yet
+    public void flush() {
+        for (; flushed < records.size(); flushed++) {
+            var record = records.get(flushed);
+            if (record.phase.stderr) {
+                System.err.println(record);
+            } else {
+                System.out.println(record);
+            }
+        }
+    }
+}
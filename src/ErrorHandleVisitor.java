@@ -2,6 +2,7 @@ import org.antlr.v4.runtime.tree.ParseTreeProperty;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 class Type {
     public String typename() {
@@ -266,23 +267,22 @@ final class ERROR_TYPE {
     public static final int CONST_ASSIGN = 14;
     public static final int DATA_OVERFLOW = 15;
     public static final int DIVID_ZERO = 16;
+    public static final int NOT_CONSTANT = 17;
 };
 
 class OutputErrHelper {
-    private int lastPrintType = ERROR_TYPE.RESERVED;
-    private int lastLine = -1;
+    private Diagnostics diagnostics;
+
+    public OutputErrHelper(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
 
     public void PrintHelper(int type, int line, String msg) {
-        if (lastLine == line && lastPrintType != type) {
-            return;
-        }
-        System.out.println("Error type " + type + " at line " + line + ": " + msg);
-        lastPrintType = type;
-        lastLine = line;
+        diagnostics.report(Diagnostics.Phase.CHECKER, type, line, msg);
     }
 
     public boolean HasError() {
-        return lastLine != -1;
+        return diagnostics.hasErrors(Diagnostics.Phase.CHECKER);
     }
 }
 
@@ -296,11 +296,17 @@ class BaseTypeHelper {
 
 public class ErrorHandleVisitor extends SysYParserBaseVisitor<Void> {
     static int ARRAY_TYPE_LEN_PLACEHOLDER = 0;
+    // found by the generator after checking, see LLVMIRGenVisitor.NotConstantError
+    public static final int NOT_CONSTANT = ERROR_TYPE.NOT_CONSTANT;
     private ParseTreeProperty<Type> propType = new ParseTreeProperty<>();
     private ParseTreeProperty<Value> propValue = new ParseTreeProperty<>();
     private Scope currentScope = new Scope(); // global
     private Symbol currentFuncSymbol = null;
-    private OutputErrHelper put = new OutputErrHelper();
+    private OutputErrHelper put;
+
+    public ErrorHandleVisitor(Diagnostics diagnostics) {
+        put = new OutputErrHelper(diagnostics);
+    }
 
     private Symbol getSymbolGlobal(Scope scope, String id) {
         if (scope == null) {
@@ -416,8 +422,8 @@ public class ErrorHandleVisitor extends SysYParserBaseVisitor<Void> {
                     curParamDeclType = BaseTypeHelper.floatType;
                 }
                 Type tn = curParamDeclType;
-                var exps = param.exp();
-                for (int j = 0; j < exps.size(); j++) {
+                // the leading [] has no exp but is a dimension too
+                for (int j = 0; j < param.L_BRACKT().size(); j++) {
                     // var exp = exps.get(j); wont resolve const exp's value
                     tn = new ArrayType(tn, ARRAY_TYPE_LEN_PLACEHOLDER);
                 }
@@ -498,13 +504,14 @@ public class ErrorHandleVisitor extends SysYParserBaseVisitor<Void> {
             }
             FuncType funcType = (FuncType) t;
             // check arg types
-            if (ctx.funcRParams().param().size() != funcType.getParamsType().size()) {
+            var params = ctx.funcRParams() != null ? ctx.funcRParams().param() : List.<SysYParser.ParamContext>of();
+            if (params.size() != funcType.getParamsType().size()) {
                 put.PrintHelper(ERROR_TYPE.FUN_PARAM_N_MATCH, ctx.IDENT().getSymbol().getLine(),
                         "param of fun call " + id + " not match param length");
                 return null;
             }
-            for (int i = 0; i < ctx.funcRParams().param().size(); i++) {
-                var param = ctx.funcRParams().param(i);
+            for (int i = 0; i < params.size(); i++) {
+                var param = params.get(i);
                 visit(param.exp());
                 if (null == propType.get(param.exp())
                         || !funcType.getParamsType().get(i).accept(propType.get(param.exp()))) {
@@ -523,7 +530,7 @@ public class ErrorHandleVisitor extends SysYParserBaseVisitor<Void> {
         } else if (ctx.L_PAREN() != null) { // (exp)
             var ret = visitChildren(ctx);
             propType.put(ctx, propType.get(ctx.exp(0)));
-            propValue.put(ctx, propValue.get(ctx.lVal()));
+            propValue.put(ctx, propValue.get(ctx.exp(0)));
             return ret;
         } else if (ctx.lVal() != null) { // lval
             var ret = visitChildren(ctx);
@@ -531,8 +538,13 @@ public class ErrorHandleVisitor extends SysYParserBaseVisitor<Void> {
             propValue.put(ctx, propValue.get(ctx.lVal()));
             return ret;
         } else if (ctx.number() != null) { // number
-            propType.put(ctx, BaseTypeHelper.intType);
-            propValue.put(ctx, new Value(BaseTypeHelper.intType, Integer.decode(ctx.number().getText())));
+            if (ctx.number().FLOAT_CONST() != null) {
+                propType.put(ctx, BaseTypeHelper.floatType);
+                propValue.put(ctx, new Value(BaseTypeHelper.floatType, Float.parseFloat(ctx.number().getText())));
+            } else {
+                propType.put(ctx, BaseTypeHelper.intType);
+                propValue.put(ctx, new Value(BaseTypeHelper.intType, Integer.decode(ctx.number().getText())));
+            }
             return null;
         } else if (ctx.unaryOp() != null) { // unary exp
             var ret = visitChildren(ctx);
@@ -545,23 +557,24 @@ public class ErrorHandleVisitor extends SysYParserBaseVisitor<Void> {
             } else if (null != ctx.unaryOp().NOT()) {
                 op = ctx.unaryOp().NOT();
             }
-            if (!(t instanceof IntType)
-                    || !(t instanceof ConstIntType)
-                    || !(t instanceof FloatType)
-                    || !(t instanceof ConstFloatType)) {
+            if (!(t instanceof IntType
+                    || t instanceof ConstIntType
+                    || t instanceof FloatType
+                    || t instanceof ConstFloatType)) {
                 put.PrintHelper(ERROR_TYPE.OP_TYPE_N_MATCH, op.getSymbol().getLine(),
                         "op " + op.getText() + " type not match exp");
                 propType.put(ctx, null);
             } else {
                 propType.put(ctx, t);
-                var val = propValue.get(ctx.exp(0));
-                // var valType = val.getType();
-                if (null != ctx.unaryOp().MINUS()) {
+                var val = propValue.get(ctx.exp(0)); // null unless a literal
+                if (val == null) {
+                    // nothing known
+                } else if (null != ctx.unaryOp().MINUS() && val.getValue() instanceof Float) {
+                    propValue.put(ctx, new Value(val.getType(), -(float) val.getValue()));
+                } else if (null != ctx.unaryOp().MINUS()) {
                     propValue.put(ctx, new Value(val.getType(), -(int) val.getValue()));
                 } else if (null != ctx.unaryOp().PLUS()) {
-
-                } else if (null != ctx.unaryOp().NOT()) {
-
+                    propValue.put(ctx, val);
                 }
             }
             return ret;
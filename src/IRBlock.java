@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+import java.util.List;
+
+class IRBlock {
+    private final String name;
+    private final List<IRInst> insts = new ArrayList<>();
+    private final List<IRBlock> preds = new ArrayList<>();
+    private IRFunction parent;
+
+    IRBlock(String name, IRFunction parent) {
+        this.name = name;
+        this.parent = parent;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public IRFunction getParent() {
+        return parent;
+    }
+
+    public List<IRInst> getInsts() {
+        return insts;
+    }
+
+    public List<IRBlock> getPreds() {
+        return preds;
+    }
+
+    public IRInst getTerminator() {
+        if (insts.isEmpty()) {
+            return null;
+        }
+        var last = insts.get(insts.size() - 1);
+        return last.getOp().isTerminator() ? last : null;
+    }
+
+    public List<IRBlock> getSuccs() {
+        var term = getTerminator();
+        return term == null ? List.of() : term.getBlocks();
+    }
+
+    public List<IRInst> getPhis() {
+        var phis = new ArrayList<IRInst>();
+        for (var inst : insts) {
+            if (inst.getOp() != IROp.PHI) {
+                break;
+            }
+            phis.add(inst);
+        }
+        return phis;
+    }
+
+    public void append(IRInst inst) {
+        insts.add(inst);
+        inst.setParent(this);
+    }
+
+    public void insert(int index, IRInst inst) {
+        insts.add(index, inst);
+        inst.setParent(this);
+    }
+
+    // insert before the terminator
+    public void insertBeforeTerminator(IRInst inst) {
+        insert(getTerminator() == null ? insts.size() : insts.size() - 1, inst);
+    }
+
+    // drop the edge from pred: its phi operands and the pred entry
+    public void removePred(IRBlock pred) {
+        int k = preds.indexOf(pred);
+        if (k < 0) {
+            return;
+        }
+        preds.remove(k);
+        for (var phi : getPhis()) {
+            for (int i = 0; i < phi.getBlocks().size(); i++) {
+                if (phi.getBlocks().get(i) == pred) {
+                    phi.removeIncoming(i);
+                    break;
+                }
+            }
+        }
+    }
+}
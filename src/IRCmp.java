@@ -0,0 +1,36 @@
+enum IRCmp {
+    EQ, NE, SLT, SGT, SLE, SGE;
+
+    public boolean eval(int a, int b) {
+        switch (this) {
+            case EQ:
+                return a == b;
+            case NE:
+                return a != b;
+            case SLT:
+                return a < b;
+            case SGT:
+                return a > b;
+            case SLE:
+                return a <= b;
+            default:
+                return a >= b;
+        }
+    }
+
+    // predicate with both operands swapped
+    public IRCmp swapped() {
+        switch (this) {
+            case SLT:
+                return SGT;
+            case SGT:
+                return SLT;
+            case SLE:
+                return SGE;
+            case SGE:
+                return SLE;
+            default:
+                return this;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+class IRConst extends IRValue {
+    private final int value;
+
+    IRConst(IRType type, int value) {
+        super(type);
+        this.value = value;
+    }
+
+    public static IRConst i32(int value) {
+        return new IRConst(IRType.I32, value);
+    }
+
+    public static IRConst i1(boolean value) {
+        return new IRConst(IRType.I1, value ? 1 : 0);
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IRConst && ((IRConst) o).value == value && ((IRConst) o).type == type;
+    }
+
+    @Override
+    public int hashCode() {
+        return value * 31 + type.hashCode();
+    }
+}
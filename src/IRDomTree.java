@@ -0,0 +1,121 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dominator tree of the blocks reachable from the entry, after Cooper,
+ * Harvey and Kennedy, "A Simple, Fast Dominance Algorithm".
+ */
+class IRDomTree {
+    private final List<IRBlock> rpo = new ArrayList<>();
+    private final Map<IRBlock, Integer> order = new HashMap<>();
+    private final Map<IRBlock, IRBlock> idom = new HashMap<>();
+    private final Map<IRBlock, List<IRBlock>> children = new HashMap<>();
+
+    IRDomTree(IRFunction func) {
+        var post = new ArrayList<IRBlock>();
+        postOrder(func.getEntry(), new HashSet<>(), post);
+        for (int i = post.size() - 1; i >= 0; i--) {
+            order.put(post.get(i), rpo.size());
+            rpo.add(post.get(i));
+        }
+        var entry = func.getEntry();
+        idom.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (var b : rpo) {
+                if (b == entry) {
+                    continue;
+                }
+                IRBlock newIdom = null;
+                for (var p : b.getPreds()) {
+                    if (!idom.containsKey(p)) {
+                        continue; // unreachable or not processed yet
+                    }
+                    newIdom = newIdom == null ? p : intersect(p, newIdom);
+                }
+                if (newIdom != idom.get(b)) {
+                    idom.put(b, newIdom);
+                    changed = true;
+                }
+            }
+        }
+        for (var b : rpo) {
+            children.put(b, new ArrayList<>());
+        }
+        for (var b : rpo) {
+            if (b != entry) {
+                children.get(idom.get(b)).add(b);
+            }
+        }
+    }
+
+    private void postOrder(IRBlock b, Set<IRBlock> seen, List<IRBlock> out) {
+        // iterative, deep loop nests would overflow the java stack otherwise
+        var stack = new ArrayDeque<Object[]>();
+        seen.add(b);
+        stack.push(new Object[] { b, 0 });
+        while (!stack.isEmpty()) {
+            var top = stack.peek();
+            var block = (IRBlock) top[0];
+            int i = (Integer) top[1];
+            var succs = block.getSuccs();
+            if (i < succs.size()) {
+                top[1] = i + 1;
+                var s = succs.get(i);
+                if (seen.add(s)) {
+                    stack.push(new Object[] { s, 0 });
+                }
+            } else {
+                stack.pop();
+                out.add(block);
+            }
+        }
+    }
+
+    private IRBlock intersect(IRBlock a, IRBlock b) {
+        while (a != b) {
+            while (order.get(a) > order.get(b)) {
+                a = idom.get(a);
+            }
+            while (order.get(b) > order.get(a)) {
+                b = idom.get(b);
+            }
+        }
+        return a;
+    }
+
+    public List<IRBlock> getRPO() {
+        return rpo;
+    }
+
+    public boolean isReachable(IRBlock b) {
+        return order.containsKey(b);
+    }
+
+    public IRBlock getIdom(IRBlock b) {
+        return idom.get(b);
+    }
+
+    public List<IRBlock> getChildren(IRBlock b) {
+        return children.get(b);
+    }
+
+    public boolean dominates(IRBlock a, IRBlock b) {
+        while (true) {
+            if (a == b) {
+                return true;
+            }
+            var up = idom.get(b);
+            if (up == null || up == b) {
+                return false;
+            }
+            b = up;
+        }
+    }
+}
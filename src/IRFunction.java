@@ -0,0 +1,61 @@
+import java.util.ArrayList;
+import java.util.List;
+
+class IRFunction {
+    private final String name;
+    private final IRType retType;
+    private final List<IRParam> params = new ArrayList<>();
+    private final List<IRBlock> blocks = new ArrayList<>();
+    private boolean pure = false;
+    private List<String> attributes = List.of();
+    private int blockCounter = 0;
+
+    IRFunction(String name, IRType retType) {
+        this.name = name;
+        this.retType = retType;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public IRType getRetType() {
+        return retType;
+    }
+
+    public List<IRParam> getParams() {
+        return params;
+    }
+
+    public List<IRBlock> getBlocks() {
+        return blocks;
+    }
+
+    public IRBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    // calls may be removed or merged when set
+    public boolean isPure() {
+        return pure;
+    }
+
+    public void setPure(boolean pure) {
+        this.pure = pure;
+    }
+
+    // LLVM function attributes to emit, from the call graph
+    public List<String> getAttributes() {
+        return attributes;
+    }
+
+    public void setAttributes(List<String> attributes) {
+        this.attributes = attributes;
+    }
+
+    public IRBlock newBlock(String name) {
+        var block = new IRBlock(name + blockCounter++, this);
+        blocks.add(block);
+        return block;
+    }
+}
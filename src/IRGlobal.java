@@ -0,0 +1,29 @@
+// the value of a global is its address
+class IRGlobal extends IRValue {
+    private final String name;
+    private int init;
+    private boolean constant;
+
+    IRGlobal(String name, int init, boolean constant) {
+        super(IRType.I32);
+        this.name = name;
+        this.init = init;
+        this.constant = constant;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getInit() {
+        return init;
+    }
+
+    public boolean isConstant() {
+        return constant;
+    }
+
+    public void setConstant(boolean constant) {
+        this.constant = constant;
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.List;
+
+class IRInst extends IRValue {
+    private final IROp op;
+    private final List<IRValue> operands = new ArrayList<>();
+    // br/condbr targets, or the incoming block of each phi operand
+    private final List<IRBlock> blocks = new ArrayList<>();
+    private IRCmp cmp; // ICMP only
+    private IRFunction callee; // CALL only
+    private IRBlock parent;
+
+    IRInst(IROp op, IRType type) {
+        super(type);
+        this.op = op;
+    }
+
+    public IROp getOp() {
+        return op;
+    }
+
+    public IRCmp getCmp() {
+        return cmp;
+    }
+
+    public void setCmp(IRCmp cmp) {
+        this.cmp = cmp;
+    }
+
+    public IRFunction getCallee() {
+        return callee;
+    }
+
+    public void setCallee(IRFunction callee) {
+        this.callee = callee;
+    }
+
+    public IRBlock getParent() {
+        return parent;
+    }
+
+    void setParent(IRBlock parent) {
+        this.parent = parent;
+    }
+
+    public List<IRValue> getOperands() {
+        return operands;
+    }
+
+    public IRValue getOperand(int i) {
+        return operands.get(i);
+    }
+
+    public List<IRBlock> getBlocks() {
+        return blocks;
+    }
+
+    public void addOperand(IRValue v) {
+        operands.add(v);
+        v.users.add(this);
+    }
+
+    public void setOperand(int i, IRValue v) {
+        operands.get(i).users.remove(this);
+        operands.set(i, v);
+        v.users.add(this);
+    }
+
+    public void replaceOperand(IRValue from, IRValue to) {
+        for (int i = 0; i < operands.size(); i++) {
+            if (operands.get(i) == from) {
+                setOperand(i, to);
+            }
+        }
+    }
+
+    public void addIncoming(IRValue v, IRBlock from) {
+        addOperand(v);
+        blocks.add(from);
+    }
+
+    public void removeIncoming(int i) {
+        operands.get(i).users.remove(this);
+        operands.remove(i);
+        blocks.remove(i);
+    }
+
+    // detach from operands and from the parent block
+    public void erase() {
+        for (var v : operands) {
+            v.users.remove(this);
+        }
+        operands.clear();
+        if (parent != null) {
+            parent.getInsts().remove(this);
+            parent = null;
+        }
+    }
+
+    // must be kept even if the result is unused
+    public boolean hasSideEffect() {
+        if (op == IROp.CALL) {
+            return !callee.isPure();
+        }
+        return op == IROp.STORE || op.isTerminator();
+    }
+}
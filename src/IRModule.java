@@ -0,0 +1,23 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A small SSA IR kept in Java between the checked tree and LLVM emission, so
+ * SysY specific optimizations can run and be tested without native calls.
+ *
+ * Values know their users (def-use chains). Locals are SSA values, globals
+ * are only touched through LOAD/STORE. Only int scalars are covered, the
+ * builder reports anything else as unsupported.
+ */
+class IRModule {
+    private final List<IRGlobal> globals = new ArrayList<>();
+    private final List<IRFunction> functions = new ArrayList<>();
+
+    public List<IRGlobal> getGlobals() {
+        return globals;
+    }
+
+    public List<IRFunction> getFunctions() {
+        return functions;
+    }
+}
@@ -0,0 +1,20 @@
+enum IROp {
+    ADD, SUB, MUL, SDIV, SREM, ICMP, ZEXT, SELECT, PHI, CALL, LOAD, STORE, BR, CONDBR, RET;
+
+    public String opname() {
+        return name().toLowerCase();
+    }
+
+    public boolean isTerminator() {
+        return this == BR || this == CONDBR || this == RET;
+    }
+
+    // no side effect and no trap, may be removed, merged or moved freely
+    public boolean isPure() {
+        return this == ADD || this == SUB || this == MUL || this == ICMP || this == ZEXT || this == SELECT;
+    }
+
+    public boolean isCommutative() {
+        return this == ADD || this == MUL;
+    }
+}
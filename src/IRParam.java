@@ -0,0 +1,18 @@
+class IRParam extends IRValue {
+    private final String name;
+    private final int index;
+
+    IRParam(IRType type, String name, int index) {
+        super(type);
+        this.name = name;
+        this.index = index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,7 @@
+enum IRType {
+    VOID, I1, I32;
+
+    public String typename() {
+        return name().toLowerCase();
+    }
+}
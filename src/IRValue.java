@@ -0,0 +1,29 @@
+import java.util.ArrayList;
+import java.util.List;
+
+abstract class IRValue {
+    protected IRType type;
+    // one entry per use, an instruction using a value twice is listed twice
+    protected final List<IRInst> users = new ArrayList<>();
+
+    IRValue(IRType type) {
+        this.type = type;
+    }
+
+    public IRType getType() {
+        return type;
+    }
+
+    public List<IRInst> getUsers() {
+        return users;
+    }
+
+    public void replaceAllUsesWith(IRValue v) {
+        if (v == this) {
+            return;
+        }
+        for (var user : new ArrayList<>(users)) {
+            user.replaceOperand(this, v);
+        }
+    }
+}
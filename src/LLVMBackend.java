@@ -0,0 +1,146 @@
+import java.util.List;
+
+import org.bytedeco.javacpp.*;
+import org.bytedeco.llvm.LLVM.*;
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * Everything done to a finished module: host target setup, the
+ * optimization pipeline and writing it out as ir, bitcode or host code.
+ */
+public class LLVMBackend {
+    private final CompilerOptions options;
+    private LLVMTargetMachineRef targetMachine;
+
+    public LLVMBackend(CompilerOptions options) {
+        this.options = options;
+    }
+
+    private static int codeGenLevel(int optLevel) {
+        switch (optLevel) {
+            case 0:
+                return LLVMCodeGenLevelNone;
+            case 1:
+                return LLVMCodeGenLevelLess;
+            case 2:
+                return LLVMCodeGenLevelDefault;
+            default:
+                return LLVMCodeGenLevelAggressive;
+        }
+    }
+
+    // target machine for the host, created on first use
+    public LLVMTargetMachineRef getTargetMachine() {
+        if (targetMachine != null) {
+            return targetMachine;
+        }
+        BytePointer triple = LLVMGetDefaultTargetTriple();
+        LLVMTargetRef target = new LLVMTargetRef();
+        BytePointer error = new BytePointer();
+        if (LLVMGetTargetFromTriple(triple, target, error) != 0) {
+            var msg = error.getString();
+            LLVMDisposeMessage(error);
+            throw new Error("no target for " + triple.getString() + ": " + msg);
+        }
+        BytePointer cpu = LLVMGetHostCPUName();
+        BytePointer features = LLVMGetHostCPUFeatures();
+        targetMachine = LLVMCreateTargetMachine(target, triple, cpu, features,
+                codeGenLevel(options.optLevel), LLVMRelocPIC, LLVMCodeModelDefault);
+        LLVMDisposeMessage(triple);
+        LLVMDisposeMessage(cpu);
+        LLVMDisposeMessage(features);
+        return targetMachine;
+    }
+
+    // set triple and data layout so passes and later tools agree on the target
+    public void configureModule(LLVMModuleRef module) {
+        var tm = getTargetMachine();
+        BytePointer triple = LLVMGetTargetMachineTriple(tm);
+        LLVMSetTarget(module, triple);
+        LLVMDisposeMessage(triple);
+        var layout = LLVMCreateTargetDataLayout(tm);
+        LLVMSetModuleDataLayout(module, layout);
+        LLVMDisposeTargetData(layout);
+    }
+
+    // enum attributes by name on the function itself, see CallGraph.getAttributes
+    public static void addFunctionAttributes(LLVMValueRef func, List<String> names) {
+        var context = LLVMGetModuleContext(LLVMGetGlobalParent(func));
+        for (var name : names) {
+            int kind = LLVMGetEnumAttributeKindForName(name, name.length());
+            if (kind == 0) {
+                throw new Error("unknown attribute " + name);
+            }
+            LLVMAddAttributeAtIndex(func, LLVMAttributeFunctionIndex, LLVMCreateEnumAttribute(context, kind, 0));
+        }
+    }
+
+    public void optimize(LLVMModuleRef module) {
+        if (options.timePasses) {
+            LLVMParseCommandLineOptions(2, new PointerPointer<>("sysy", "-time-passes"), (BytePointer) null);
+        }
+        var passOptions = LLVMCreatePassBuilderOptions();
+        LLVMPassBuilderOptionsSetLoopUnrolling(passOptions, options.optLevel >= 2 ? 1 : 0);
+        LLVMPassBuilderOptionsSetLoopVectorization(passOptions, options.optLevel >= 2 ? 1 : 0);
+        LLVMPassBuilderOptionsSetSLPVectorization(passOptions, options.optLevel >= 2 ? 1 : 0);
+        long begin = System.nanoTime();
+        var err = LLVMRunPasses(module, "default<O" + options.optLevel + ">", getTargetMachine(), passOptions);
+        long end = System.nanoTime();
+        LLVMDisposePassBuilderOptions(passOptions);
+        if (err != null) {
+            BytePointer msg = LLVMGetErrorMessage(err);
+            var str = msg.getString();
+            LLVMDisposeErrorMessage(msg);
+            throw new Error("pass pipeline failed: " + str);
+        }
+        if (options.timePasses) {
+            System.err.printf("default<O%d> pipeline: %.3f ms%n", options.optLevel, (end - begin) / 1e6);
+        }
+    }
+
+    public void emit(LLVMModuleRef module, String filename) {
+        configureModule(module);
+        if (options.wholeProgram) {
+            var wp = WholeProgram.run(module);
+            if (options.timePasses) {
+                System.err.println(wp.getSummary());
+            }
+        }
+        optimize(module);
+        write(module, filename);
+    }
+
+    /**
+     * the artifact the file name asks for, straight from the module: .bc
+     * bitcode, .o an object file and .s assembly for the host, anything
+     * else textual ir.
+     */
+    public void write(LLVMModuleRef module, String filename) {
+        if (filename.endsWith(".bc")) {
+            if (LLVMWriteBitcodeToFile(module, filename) != 0) {
+                System.err.println("cannot write " + filename);
+            }
+            return;
+        }
+        BytePointer error = new BytePointer();
+        int failed;
+        if (filename.endsWith(".o")) {
+            failed = LLVMTargetMachineEmitToFile(getTargetMachine(), module, new BytePointer(filename), LLVMObjectFile, error);
+        } else if (filename.endsWith(".s")) {
+            failed = LLVMTargetMachineEmitToFile(getTargetMachine(), module, new BytePointer(filename), LLVMAssemblyFile, error);
+        } else {
+            failed = LLVMPrintModuleToFile(module, filename, error); // module
+        }
+        if (failed != 0) {
+            System.err.println(error.getString());
+            LLVMDisposeMessage(error);
+        }
+    }
+
+    public void dispose() {
+        if (targetMachine != null) {
+            LLVMDisposeTargetMachine(targetMachine);
+            targetMachine = null;
+        }
+    }
+}
@@ -5,11 +5,13 @@ import org.antlr.v4.runtime.tree.ParseTreeProperty;
 import org.antlr.v4.runtime.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.TreeMap;
 
 import org.antlr.v4.runtime.atn.ATNConfigSet;
 import org.antlr.v4.runtime.dfa.DFA;
@@ -21,11 +23,35 @@ import org.bytedeco.javacpp.*;
 
 
 public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
-    class Symbol {
+    /**
+     * something the checker lets through but that has to be a constant
+     * here: an array size, or a global initializer calling a function
+     * that could not be run at compile time. Main reports it like a
+     * checker error.
+     */
+    static class NotConstantError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int line;
+
+        NotConstantError(String what, int line) {
+            super(what + " is not a constant");
+            this.line = line;
+        }
+
+        public int getLine() {
+            return line;
+        }
+    }
+
+    class Symbol implements SSABuilder.Variable {
         private LLVMTypeRef type;
         private String id;
         // stores memref contain value, not value itself
+        // null for scalars kept in registers by ssa
         private LLVMValueRef valueMem;
+        // value of a const known at compile time, null otherwise
+        private LLVMValueRef constant;
     
         public Symbol(LLVMTypeRef t, String i) {
             this.type = t;
@@ -54,6 +80,24 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
         public void setValueMem(LLVMValueRef valueMem) {
             this.valueMem = valueMem;
         }
+
+        public boolean isSSA() {
+            return valueMem == null;
+        }
+
+        public LLVMValueRef getConstant() {
+            return constant;
+        }
+
+        public void setConstant(LLVMValueRef constant) {
+            this.constant = constant;
+        }
+
+        // the same for an int const, as folding on the tree (ConstExp) wants it
+        public Integer getConstValue() {
+            return constant != null && LLVMIsAConstantInt(constant) != null
+                    ? (int) LLVMConstIntGetSExtValue(constant) : null;
+        }
     };
     
     class Scope {
@@ -102,36 +146,28 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
         }
     }
     
-    class BasicBlock {
-        private LLVMBasicBlockRef block;
-        private boolean used = false;
-    
-        BasicBlock(LLVMBasicBlockRef b) {
-            block = b;
-        }
-    
-        public LLVMBasicBlockRef getBlock() {
-            return block;
-        }
-    
-        public void setUsed(boolean used) {
-            this.used = used;
-        }
-    
-        public boolean getUsed() {
-            return used;
-        }
-    }
-    
     private final String GLOBAL_NAME = "global";
+    private final int MIN_SWITCH_CASES = 3; // shorter if chains stay branches
+    private final int MIN_ZERO_TAIL = 64; // scalars, see buildGlobalArray
     private String filename;
-    private LLVMModuleRef module = LLVMModuleCreateWithName("module"); // make module
-    private LLVMBuilderRef builder = LLVMCreateBuilder(); // LLVM IR Builder for usage
-    private LLVMTypeRef i32Type = LLVMInt32Type(); // since our language only have int type, store it for usage;
-    private LLVMTypeRef voidType = LLVMVoidType();
-    private LLVMValueRef zero = LLVMConstInt(i32Type, 0, 0);
+    private CompilerOptions options;
+    private final LLVMContextRef context; // everything below is made in it
+    private LLVMModuleRef module; // make module
+    private LLVMBuilderRef builder; // LLVM IR Builder for usage
+    private LLVMBuilderRef allocaBuilder; // only ever points into curFunc's entry block
+    private LLVMTypeRef i32Type; // since our language only have int type, store it for usage;
+    private LLVMTypeRef floatType;
+    private LLVMTypeRef voidType;
+    private LLVMValueRef zero;
+    // only part of the program is generated, see the constructor for ParallelCodegen
+    private boolean partial = false;
+    private SysYParser.FuncDefContext partDef;
 
     private LLVMValueRef curFunc;
+    private LLVMBasicBlockRef curEntryBlock;
+    private CFGBuilder cfg;
+    private SSABuilder ssa; // null unless scalars are built in register form
+    private LLVMValueRef lastEntryAlloca;
     // private LLVMBasicBlockRef curBlock;
 
     private int curVRegCounter = 0, curVBlockCounter = 0;
@@ -152,37 +188,420 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
         return id + "_b" + curVBlockCounter++;
     }
 
+    /**
+     * every stack slot lives in the entry block, so a decl inside a loop does
+     * not grow the stack per iteration and mem2reg can promote it.
+     * allocas are kept in creation order at the top of the entry block.
+     */
+    private LLVMValueRef buildEntryAlloca(LLVMTypeRef type, String name) {
+        var next = lastEntryAlloca != null
+                ? LLVMGetNextInstruction(lastEntryAlloca)
+                : LLVMGetFirstInstruction(curEntryBlock);
+        if (next != null) {
+            LLVMPositionBuilderBefore(allocaBuilder, next);
+        } else {
+            LLVMPositionBuilderAtEnd(allocaBuilder, curEntryBlock);
+        }
+        lastEntryAlloca = LLVMBuildAlloca(allocaBuilder, type, name);
+        return lastEntryAlloca;
+    }
+
     private Scope currentScope = new Scope(GLOBAL_NAME); // global
+    private final Scope globalScope = currentScope;
+
+    private CallGraph callGraph;
+    private ConstInterpreter constInterpreter;
+
+    // a call being expanded in place: returns store the result and jump to exit
+    class InlineFrame {
+        private final CFGBuilder.Label exit;
+        private final Symbol result; // null for void functions
+
+        InlineFrame(CFGBuilder.Label exit, Symbol result) {
+            this.exit = exit;
+            this.result = result;
+        }
+    }
+
+    private Stack<InlineFrame> inlineStack = new Stack<>();
 
-    private ParseTreeProperty<BasicBlock> propTrueBlock = new ParseTreeProperty<>();
-    private ParseTreeProperty<BasicBlock> propFalseBlock = new ParseTreeProperty<>();
-    private ParseTreeProperty<BasicBlock> propNextBlock = new ParseTreeProperty<>();
+    // direct mapped cache of a memoized function's results, slot chosen by a hash of the args
+    class MemoTable {
+        private final LLVMValueRef keys; // args of the call in each slot, n per slot
+        private final LLVMValueRef values;
+        private final LLVMValueRef used;
+        private LLVMValueRef slot; // of the current call, computed on entry
 
-    private Stack<BasicBlock> whileBeginStack = new Stack<>();
-    private Stack<BasicBlock> whileExitStack = new Stack<>();
+        MemoTable(LLVMValueRef keys, LLVMValueRef values, LLVMValueRef used) {
+            this.keys = keys;
+            this.values = values;
+            this.used = used;
+        }
+    }
+
+    private MemoTable curMemo; // null unless the current function is memoized
+
+    // a global kept in a local while a loop or function body is generated
+    class PromotedGlobal {
+        private final Symbol global;
+        private final Symbol local;
+        private final boolean written;
+
+        PromotedGlobal(Symbol global, Symbol local, boolean written) {
+            this.global = global;
+            this.local = local;
+            this.written = written;
+        }
+    }
+
+    private List<PromotedGlobal> curFuncPromoted = new ArrayList<>(); // stored back at every ret
+
+    // a copy of a function for known values of some of its params
+    class Specialization {
+        private final SysYParser.FuncDefContext def;
+        private final Integer[] args; // null where not known
+        private final LLVMValueRef func;
+
+        Specialization(SysYParser.FuncDefContext def, Integer[] args, LLVMValueRef func) {
+            this.def = def;
+            this.args = args;
+            this.func = func;
+        }
+    }
+
+    private Map<String, Specialization> specializations = new HashMap<>(); // by name and args
+    private List<Specialization> pendingSpecializations = new ArrayList<>();
+    private Integer[] curSpec; // args of the clone being generated, null in the function itself
+
+    private CallGraph.Node curFuncNode;
+    // self tail calls jump here with the params rewritten, null if there are none
+    private CFGBuilder.Label tailCallLabel;
+    private List<Symbol> curParams = new ArrayList<>();
+
+    private ParseTreeProperty<CFGBuilder.Label> propTrueBlock = new ParseTreeProperty<>();
+    private ParseTreeProperty<CFGBuilder.Label> propFalseBlock = new ParseTreeProperty<>();
+
+    private Stack<CFGBuilder.Label> whileBeginStack = new Stack<>();
+    private Stack<CFGBuilder.Label> whileExitStack = new Stack<>();
+
+    // value each stack or global slot holds at the end of loadCacheBlock, see availableValues()
+    private Map<Symbol, LLVMValueRef> loadCache = new HashMap<>();
+    private CFGBuilder.Block loadCacheBlock;
+
+    LLVMIRGenVisitor(String filename, CompilerOptions options) {
+        this(filename, options, LLVMGetGlobalContext());
+    }
 
-    LLVMIRGenVisitor(String filename) {
+    private LLVMIRGenVisitor(String filename, CompilerOptions options, LLVMContextRef context) {
         this.filename = filename;
+        this.options = options;
+        this.context = context;
+        module = LLVMModuleCreateWithNameInContext("module", context);
+        builder = LLVMCreateBuilderInContext(context);
+        allocaBuilder = LLVMCreateBuilderInContext(context);
+        i32Type = LLVMInt32TypeInContext(context);
+        floatType = LLVMFloatTypeInContext(context);
+        voidType = LLVMVoidTypeInContext(context);
+        zero = LLVMConstInt(i32Type, 0, 0);
+        cfg = new CFGBuilder(builder);
+        if (options.ssa) {
+            ssa = new SSABuilder(context, this::genVReg);
+            cfg.setOnSeal(ssa::sealBlock);
+        }
+    }
+
+    /**
+     * a visitor for one part of the program, in a context of its own so
+     * parts can be generated on different threads: the body of def (and
+     * the clones it calls), or with def null the global variables. every
+     * other function is declared, the globals are declared unless def is
+     * null. nothing is written, the caller takes getModule() and disposes.
+     */
+    LLVMIRGenVisitor(CompilerOptions options, LLVMContextRef context, CallGraph callGraph,
+            SysYParser.FuncDefContext def) {
+        this(null, options, context);
+        this.callGraph = callGraph;
+        this.partial = true;
+        this.partDef = def;
+    }
+
+    public LLVMModuleRef getModule() {
+        return module;
+    }
+
+    // the builders, the module is left to whoever took it
+    public void dispose() {
+        LLVMDisposeBuilder(builder);
+        LLVMDisposeBuilder(allocaBuilder);
+        if (ssa != null) {
+            ssa.dispose();
+        }
+    }
+
+    // the new local is a register value under ssa, a stack slot otherwise
+    private Symbol buildLocal(LLVMTypeRef type, String id, LLVMValueRef init) {
+        if (ssa != null) {
+            var symbol = new Symbol(type, id);
+            ssa.writeVariable(symbol, cfg.getCurrent(), init);
+            return symbol;
+        }
+        var mem = buildEntryAlloca(type, genVReg(id));
+        LLVMBuildStore(builder, init, mem);
+        var symbol = new Symbol(type, id, mem);
+        availableValues().put(symbol, init);
+        return symbol;
+    }
+
+    /**
+     * values known to be in memory slots at the current point, so a read
+     * can reuse them instead of loading again. only valid inside one block:
+     * it starts empty whenever code goes to another block. stores update
+     * it, calls drop the globals (locals never escape).
+     */
+    private Map<Symbol, LLVMValueRef> availableValues() {
+        if (cfg.getCurrent() != loadCacheBlock) {
+            loadCache.clear();
+            loadCacheBlock = cfg.getCurrent();
+        }
+        return loadCache;
+    }
+
+    private void forgetGlobalValues() {
+        availableValues().keySet().removeIf(symbol -> LLVMIsAGlobalVariable(symbol.getValueMem()) != null);
+    }
+
+    private LLVMValueRef buildReadSymbol(Symbol symbol) {
+        if (symbol.getConstant() != null) {
+            return symbol.getConstant();
+        }
+        if (symbol.isSSA()) {
+            return ssa.readVariable(symbol, cfg.getCurrent());
+        }
+        var available = availableValues();
+        var val = available.get(symbol);
+        if (val == null) {
+            val = LLVMBuildLoad(builder, symbol.getValueMem(), genVReg());
+            available.put(symbol, val);
+        }
+        return val;
+    }
+
+    private void buildWriteSymbol(Symbol symbol, LLVMValueRef val) {
+        if (symbol.isSSA()) {
+            ssa.writeVariable(symbol, cfg.getCurrent(), val);
+        } else {
+            LLVMBuildStore(builder, val, symbol.getValueMem());
+            availableValues().put(symbol, val);
+        }
+    }
+
+    // an array with fewer subscripts than dimensions reads as a pointer, see buildLValAddress
+    private LLVMValueRef buildReadLVal(SysYParser.LValContext ctx) {
+        var symbol = currentScope.getSymbolGlobal(ctx.IDENT().getText());
+        if (!isArray(symbol)) {
+            return buildReadSymbol(symbol);
+        }
+        var address = buildLValAddress(symbol, ctx);
+        if (ctx.exp().size() < arrayDepth(symbol)) {
+            return address;
+        }
+        return LLVMBuildLoad(builder, address, genVReg());
+    }
+
+    private void buildWriteLVal(SysYParser.LValContext ctx, LLVMValueRef val) {
+        var symbol = currentScope.getSymbolGlobal(ctx.IDENT().getText());
+        if (isArray(symbol)) {
+            var address = buildLValAddress(symbol, ctx);
+            LLVMBuildStore(builder, buildConvert(val, LLVMGetElementType(LLVMTypeOf(address))), address);
+        } else {
+            buildWriteSymbol(symbol, buildConvert(val, symbol.getType()));
+        }
+    }
+
+    private static boolean isFloat(LLVMValueRef val) {
+        return LLVMGetTypeKind(LLVMTypeOf(val)) == LLVMFloatTypeKind;
+    }
+
+    /**
+     * val as a value of type, the implicit int/float conversion of an
+     * assignment, initializer, argument or return. nothing is built when
+     * the types already agree, a constant is converted at compile time.
+     */
+    private LLVMValueRef buildConvert(LLVMValueRef val, LLVMTypeRef type) {
+        int from = LLVMGetTypeKind(LLVMTypeOf(val));
+        int to = LLVMGetTypeKind(type);
+        if (from == LLVMIntegerTypeKind && to == LLVMFloatTypeKind) {
+            return LLVMBuildSIToFP(builder, val, type, genVReg());
+        } else if (from == LLVMFloatTypeKind && to == LLVMIntegerTypeKind) {
+            return LLVMBuildFPToSI(builder, val, type, genVReg());
+        }
+        return val;
+    }
+
+    // i1 truth value of an int or float, as a cond or operand of ! sees it
+    private LLVMValueRef buildIsTrue(LLVMValueRef val) {
+        if (isFloat(val)) {
+            return LLVMBuildFCmp(builder, LLVMRealUNE, val, LLVMConstNull(floatType), genVReg("con"));
+        }
+        return LLVMBuildICmp(builder, LLVMIntNE, val, zero, genVReg("con"));
+    }
+
+    private LLVMTypeRef scalarType(SysYParser.BTypeContext btype) {
+        return btype.FLOAT() != null ? floatType : i32Type;
+    }
+
+    private LLVMTypeRef returnType(SysYParser.FuncTypeContext funcType) {
+        if (funcType.VOID() != null) {
+            return voidType;
+        }
+        return funcType.FLOAT() != null ? floatType : i32Type;
+    }
+
+    // return f(args) inside f: rebind the params and start over, no new frame
+    // a call of the function being generated, for a clone only with the values it was made for
+    private boolean isSelfCall(SysYParser.ExpContext call) {
+        if (!call.IDENT().getText().equals(curFuncNode.getName())) {
+            return false;
+        }
+        if (curSpec == null) {
+            return true;
+        }
+        var known = knownArgs(curFuncNode.getDef(), call.funcRParams());
+        for (int i = 0; i < curSpec.length; i++) {
+            if (curSpec[i] != null && !curSpec[i].equals(known[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void buildSelfTailCall(SysYParser.FuncRParamsContext args) {
+        var argValues = new ArrayList<LLVMValueRef>();
+        if (args != null) {
+            for (var param : args.param()) {
+                argValues.add(visit(param.exp()));
+            }
+        }
+        for (int i = 0; i < argValues.size(); i++) {
+            var param = curParams.get(i);
+            if (param.getConstant() == null) { // known ones get the same value again
+                buildWriteSymbol(param, buildConvert(argValues.get(i), param.getType()));
+            }
+        }
+        cfg.br(tailCallLabel);
+    }
+
+    /**
+     * expand a call in place. the args are evaluated in the caller, then
+     * the callee's body is generated in a scope of its own (params over
+     * globals), its returns store the result and jump past the body.
+     */
+    private LLVMValueRef buildInlinedCall(CallGraph.Node callee, SysYParser.FuncRParamsContext args) {
+        var def = callee.getDef();
+        var argValues = new ArrayList<LLVMValueRef>();
+        if (args != null) {
+            for (var param : args.param()) {
+                argValues.add(visit(param.exp()));
+            }
+        }
+        var paramsScope = new Scope(callee.getName() + "_inline");
+        paramsScope.setParentScope(globalScope);
+        if (def.funcFParams() != null) {
+            var funcFParams = def.funcFParams().funcFParam();
+            for (int i = 0; i < funcFParams.size(); i++) {
+                var funcFParam = funcFParams.get(i);
+                String paramName = funcFParam.IDENT().getText();
+                var arg = argValues.get(i);
+                // arrays are passed on as they are
+                var type = funcFParam.L_BRACKT().isEmpty() ? scalarType(funcFParam.bType()) : LLVMTypeOf(arg);
+                paramsScope.setSymbol(paramName, buildLocal(type, paramName, buildConvert(arg, type)));
+            }
+        }
+        var retType = returnType(def.funcType());
+        var result = retType.equals(voidType) ? null
+                : buildLocal(retType, callee.getName() + "_ret", LLVMConstNull(retType));
+        var frame = new InlineFrame(cfg.newLabel(genVBlock(callee.getName() + "_ret")), result);
+
+        var callerScope = currentScope;
+        currentScope = paramsScope;
+        inlineStack.push(frame);
+        visit(def.block());
+        inlineStack.pop();
+        currentScope = callerScope;
+
+        cfg.br(frame.exit); // falling off the end
+        cfg.position(frame.exit);
+        if (!cfg.isReachable()) { // the callee never returns, the rest of the caller is dead
+            cfg.positionDetached(cfg.newLabel(genVBlock("dead")));
+        }
+        return result != null ? buildReadSymbol(result) : null;
     }
 
     @Override
     public LLVMValueRef visitProgram(SysYParser.ProgramContext ctx) {
-        // init LLVM
+        if (!partial) {
+            // init LLVM
 
-        LLVMInitializeCore(LLVMGetGlobalPassRegistry());
-        LLVMLinkInMCJIT();
-        LLVMInitializeNativeAsmPrinter();
-        LLVMInitializeNativeAsmParser();
-        LLVMInitializeNativeTarget();
+            LLVMInitializeCore(LLVMGetGlobalPassRegistry());
+            LLVMLinkInMCJIT();
+            LLVMInitializeNativeAsmPrinter();
+            LLVMInitializeNativeAsmParser();
+            LLVMInitializeNativeTarget();
 
+            callGraph = new CallGraph(ctx, options.inlineThreshold);
+        }
+        constInterpreter = new ConstInterpreter(callGraph, id -> {
+            var symbol = globalScope.getSymbol(id);
+            return symbol != null ? symbol.getConstValue() : null;
+        }, options.constEvalSteps);
         visitChildren(ctx);
+        // clones are made at the call sites, their bodies once every function is declared
+        while (!pendingSpecializations.isEmpty()) {
+            var spec = pendingSpecializations.remove(0);
+            buildFunctionBody(spec.def, spec.func, spec.args);
+        }
+        if (partial) {
+            if (partDef != null) {
+                // defined by the part for the globals
+                for (var g = LLVMGetFirstGlobal(module); g != null; g = LLVMGetNextGlobal(g)) {
+                    if (LLVMGetLinkage(g) == LLVMExternalLinkage) {
+                        LLVMSetInitializer(g, null);
+                    }
+                }
+            }
+            removeUnusedDeclarations();
+            return null;
+        }
+        if (options.inlineReport) {
+            callGraph.printReport(System.err);
+        }
 
-        BytePointer error = new BytePointer();
+        var backend = new LLVMBackend(options);
+        backend.emit(module, filename);
+        backend.dispose();
+        return null;
+    }
 
-        if (LLVMPrintModuleToFile(module, filename, error) != 0) { // module
-            LLVMDisposeMessage(error);
+    // a part only keeps what it refers to, so its code depends on nothing else (see CodegenCache)
+    private void removeUnusedDeclarations() {
+        var unused = new ArrayList<LLVMValueRef>();
+        for (var f = LLVMGetFirstFunction(module); f != null; f = LLVMGetNextFunction(f)) {
+            if (LLVMCountBasicBlocks(f) == 0 && LLVMGetFirstUse(f) == null) {
+                unused.add(f);
+            }
+        }
+        for (var f : unused) {
+            LLVMDeleteFunction(f);
+        }
+        unused.clear();
+        for (var g = LLVMGetFirstGlobal(module); g != null; g = LLVMGetNextGlobal(g)) {
+            if (LLVMGetInitializer(g) == null && LLVMGetFirstUse(g) == null) {
+                unused.add(g);
+            }
+        }
+        for (var g : unused) {
+            LLVMDeleteGlobal(g);
         }
-        return null;
     }
 
     @Override
@@ -217,135 +636,286 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
          * global.curBlock = new Block(curFunc) : base block, then follow inst.;
          * 
          * 
-         * // set Flow Control related logic
-         * D.next = new Block()
-         * 
          * visit block
+         * if end of block reachable: gencode(return 0)
          * 
          * set curScope back to global
          * 
          */
 
         // local.retType = LLVMType(funcType)
-        var globalScope = currentScope;
-        LLVMTypeRef retType;
-        if (ctx.funcType().VOID() != null) {
-            retType = voidType;
-        } else {
-            retType = i32Type;
-        }
+        LLVMTypeRef retType = returnType(ctx.funcType());
 
         // local.ID = ID.string
         String funcName = ctx.IDENT().getText();
 
-        Scope paramsScope = new Scope(funcName + "_params");
         var funcFParams = ctx.funcFParams() != null ? ctx.funcFParams().funcFParam() : null;
         int n = (funcFParams != null) ? funcFParams.size() : 0;
         PointerPointer<Pointer> paramsTypes = new PointerPointer<>(n);
         for (int i = 0; i < n; i++) {
-            // WARNING:: Assuming all type are i32
-            var t = i32Type;
-            paramsTypes.put(i, t);
+            paramsTypes.put(i, paramType(funcFParams.get(i)));
+        }
+
+        LLVMTypeRef ft = LLVMFunctionType(retType, paramsTypes, n, 0);
+        var func = LLVMAddFunction(module, funcName, ft);
+        currentScope.setSymbol(funcName, new Symbol(ft, funcName, func));
+        if (!partial || ctx == partDef) {
+            buildFunctionBody(ctx, func, null);
         }
+        return func;
+    }
 
+    // int a[][n]... is passed as a pointer to its first row, scalars as they are
+    private LLVMTypeRef paramType(SysYParser.FuncFParamContext param) {
+        var elem = scalarType(param.bType());
+        if (param.L_BRACKT().isEmpty()) {
+            return elem;
+        }
+        var dims = new int[param.exp().size()];
+        for (int i = 0; i < dims.length; i++) {
+            var n = ConstExp.eval(param.exp(i), this::lookupConst);
+            if (n == null || n < 0) {
+                throw new NotConstantError("size of array param " + param.IDENT().getText(), param.exp(i).getStart().getLine());
+            }
+            dims[i] = n;
+        }
+        return LLVMPointerType(arrayType(elem, dims), 0);
+    }
+
+    /**
+     * generate ctx's body into func. spec is null for the function itself,
+     * for a specialized clone it holds the value of every param known at
+     * its call sites (null where not known); those params are not params
+     * of func.
+     */
+    private void buildFunctionBody(SysYParser.FuncDefContext ctx, LLVMValueRef func, Integer[] spec) {
+        var retType = LLVMGetReturnType(LLVMGlobalGetValueType(func));
+        String funcName = ctx.IDENT().getText();
+        Scope paramsScope = new Scope(funcName + "_params");
+        var funcFParams = ctx.funcFParams() != null ? ctx.funcFParams().funcFParam() : null;
+        int n = (funcFParams != null) ? funcFParams.size() : 0;
         paramsScope.setParentScope(currentScope);
 
-        LLVMTypeRef ft = LLVMFunctionType(retType, paramsTypes, n, 0);
-        curFunc = LLVMAddFunction(module, funcName, ft);
+        curFunc = func;
         Scope funcBlockScope = new Scope(funcName + "_block");
-        currentScope.setSymbol(funcName, new Symbol(ft, funcName, curFunc));
         funcBlockScope.setParentScope(paramsScope);
 
         // a block to store
-        var curBlock = LLVMAppendBasicBlock(curFunc, genVBlock(funcName));
-        LLVMPositionBuilderAtEnd(builder, curBlock);
+        cfg.beginFunction(curFunc, genVBlock(funcName));
+        curEntryBlock = cfg.getEntry().getRef();
+        lastEntryAlloca = null;
 
-        for (int i = 0; i < n; i++) {
+        curParams.clear();
+        curSpec = spec;
+        for (int i = 0, k = 0; i < n; i++) {
             var funcFParam = funcFParams.get(i);
             String paramName = funcFParam.IDENT().getText();
-            // WARNING:: Assuming all type are i32
-            var t = i32Type;
-            LLVMValueRef vp = LLVMGetParam(curFunc, i);
-            LLVMValueRef v = LLVMBuildAlloca(builder, t, genVReg(paramName));
-            if (builder == null || vp == null || v == null) {
-                throw new IllegalArgumentException("Invalid arguments for LLVMBuildStore");
-            }
-            LLVMBuildStore(builder, vp, v);
-            var symbol = new Symbol(t, paramName, v);
+            Symbol symbol;
+            if (spec != null && spec[i] != null) { // only ever an int
+                var t = i32Type;
+                var known = LLVMConstInt(t, spec[i], 1);
+                if (CallGraph.assigns(ctx.block(), paramName)) {
+                    symbol = buildLocal(t, paramName, known);
+                } else {
+                    symbol = new Symbol(t, paramName);
+                    symbol.setConstant(known);
+                }
+            } else {
+                var param = LLVMGetParam(curFunc, k++);
+                symbol = buildLocal(LLVMTypeOf(param), paramName, param);
+            }
             paramsScope.setSymbol(paramName, symbol);
+            curParams.add(symbol);
+        }
+
+        curFuncNode = callGraph.getNode(funcName);
+        LLVMBackend.addFunctionAttributes(func, callGraph.getAttributes(curFuncNode, options.memoSize > 0));
+        curMemo = null;
+        if (options.memoSize > 0 && curFuncNode.isMemoizable() && spec == null) {
+            buildMemoLookup(funcName, n);
+        }
+
+        curFuncPromoted = new ArrayList<>();
+        if (options.promoteGlobals) {
+            currentScope = paramsScope;
+            var promotedScope = promoteGlobals(ctx.block(), 2, curFuncPromoted);
+            if (promotedScope != null) {
+                funcBlockScope.setParentScope(promotedScope);
+            }
+            currentScope = globalScope;
+        }
+
+        // the body becomes a loop when it returns calls to itself
+        tailCallLabel = null;
+        if (curFuncNode.hasSelfTailCall()) {
+            tailCallLabel = cfg.newLabel(genVBlock(funcName + "_tail"));
+            cfg.positionUnsealed(tailCallLabel);
         }
 
         currentScope = funcBlockScope;
         visit(ctx.block());
         currentScope = globalScope;
 
-        return curFunc;
+        if (cfg.isReachable()) { // falling off the end
+            storePromoted(curFuncPromoted);
+            if (retType.equals(voidType)) {
+                LLVMBuildRetVoid(builder);
+            } else {
+                LLVMBuildRet(builder, LLVMConstNull(retType));
+            }
+            cfg.terminate();
+        }
+        if (tailCallLabel != null) {
+            cfg.seal(tailCallLabel);
+        }
+        if (ssa != null) {
+            ssa.finishFunction();
+        }
     }
 
-    @Override
-    public LLVMValueRef visitBlock(SysYParser.BlockContext ctx) {
-        /**
-         * D -> DI*
-         * 
-         * base:
-         * DI1 || new || DI2 || new || ... || new <- this should always exist || DIn
-         * want:
-         * if DIk not used new:
-         * DI1 DI2 instead of DI1 new DI2
-         * 
-         * var next = new()
-         * for each DIk in range(0, n - 1) {
-         * if next used
-         * // some jump to new commited, just append block
-         * switch to next
-         * next = New()
-         * }
-         * DIk.next = next
-         * visit DIk
-         * // exit
-         * if next not used:
-         * // now shall use it
-         * Br to next
-         * fin:
-         * // force pad this new
-         * switch to next
-         * DIn.next = this.next
-         * viist DIn
-         */
-        if (ctx.blockItem() == null) {
-            return super.visitBlock(ctx);
+    // value of every arg to an int param that is a constant expression, null for the others
+    private Integer[] knownArgs(SysYParser.FuncDefContext def, SysYParser.FuncRParamsContext args) {
+        int n = args != null ? args.param().size() : 0;
+        var known = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            var param = def.funcFParams().funcFParam(i);
+            if (param.bType().INT() != null && param.L_BRACKT().isEmpty()) {
+                known[i] = ConstExp.eval(args.param(i).exp(), this::lookupConst);
+            }
+        }
+        return known;
+    }
+
+    /**
+     * the clone of callee to call for the constant args at this call site,
+     * made on first use, null to call callee itself. a clone is made when
+     * the benefit estimated by the call graph covers a quarter of the
+     * callee's size, up to options.specializeLimit clones in all.
+     */
+    private Specialization getSpecialization(CallGraph.Node callee, SysYParser.FuncRParamsContext args) {
+        if (options.specializeLimit <= 0 || callee.getName().equals("main")
+                || (options.memoSize > 0 && callee.isMemoizable())) {
+            return null;
         }
-        var DIs = ctx.blockItem();
-        if (DIs.size() == 1) {
-            var DI = DIs.get(0);
-            propNextBlock.put(DI, propNextBlock.get(ctx));
-            return visit(DI);
+        var known = knownArgs(callee.getDef(), args);
+        boolean any = false;
+        for (var k : known) {
+            any |= k != null;
         }
-        BasicBlock nextBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("d")));
-        for (int i = 0; i < DIs.size() - 1; i++) {
-            if (nextBlock.getUsed()) {
-                LLVMPositionBuilderAtEnd(builder, nextBlock.getBlock());
-                nextBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("d")));
+        if (!any) {
+            return null;
+        }
+        var key = callee.getName() + Arrays.toString(known);
+        var spec = specializations.get(key);
+        if (spec != null || specializations.size() >= options.specializeLimit) {
+            return spec;
+        }
+        if (callGraph.getSpecializationBenefit(callee, known) * 4 < callee.getSize()) {
+            return null;
+        }
+        var def = callee.getDef();
+        var original = globalScope.getSymbol(callee.getName()).getValueMem();
+        var paramsTypes = new PointerPointer<>(known.length);
+        int n = 0;
+        for (int i = 0; i < known.length; i++) {
+            if (known[i] == null) {
+                paramsTypes.put(n++, LLVMTypeOf(LLVMGetParam(original, i)));
             }
-            var DIk = DIs.get(i);
-            propNextBlock.put(DIk, nextBlock);
-            visit(DIk);
         }
-        if (!nextBlock.getUsed()) {
-            LLVMBuildBr(builder, nextBlock.getBlock());
+        var ft = LLVMFunctionType(returnType(def.funcType()), paramsTypes, n, 0);
+        var func = LLVMAddFunction(module, callee.getName() + ".spec" + specializations.size(), ft);
+        LLVMSetLinkage(func, LLVMInternalLinkage);
+        spec = new Specialization(def, known, func);
+        specializations.put(key, spec);
+        pendingSpecializations.add(spec);
+        return spec;
+    }
+
+    private LLVMValueRef buildMemoGlobal(String name, int size) {
+        var type = LLVMArrayType(i32Type, size);
+        var global = LLVMAddGlobal(module, type, name);
+        LLVMSetInitializer(global, LLVMConstNull(type));
+        LLVMSetLinkage(global, LLVMInternalLinkage);
+        return global;
+    }
+
+    private LLVMValueRef buildMemoElement(LLVMValueRef table, LLVMValueRef index) {
+        var indices = new PointerPointer<>(zero, index);
+        return LLVMBuildInBoundsGEP(builder, table, indices, 2, genVReg());
+    }
+
+    /**
+     * on entry to a memoized function: pick the slot for the args and
+     * return the value stored there if it was stored for the same args.
+     * every return of the body fills the slot (buildMemoStore). the table
+     * has options.memoSize slots, a colliding call replaces the older one.
+     */
+    private void buildMemoLookup(String funcName, int n) {
+        int size = Integer.highestOneBit(options.memoSize);
+        curMemo = new MemoTable(buildMemoGlobal(funcName + ".memo.keys", size * n),
+                buildMemoGlobal(funcName + ".memo.values", size),
+                buildMemoGlobal(funcName + ".memo.used", size));
+
+        var hash = LLVMGetParam(curFunc, 0);
+        for (int i = 1; i < n; i++) {
+            var scaled = LLVMBuildMul(builder, hash, LLVMConstInt(i32Type, 31, 0), genVReg());
+            hash = LLVMBuildAdd(builder, scaled, LLVMGetParam(curFunc, i), genVReg());
+        }
+        curMemo.slot = LLVMBuildAnd(builder, hash, LLVMConstInt(i32Type, size - 1, 0), genVReg());
+
+        var used = LLVMBuildLoad(builder, buildMemoElement(curMemo.used, curMemo.slot), genVReg());
+        var hit = LLVMBuildICmp(builder, LLVMIntNE, used, zero, genVReg());
+        var base = LLVMBuildMul(builder, curMemo.slot, LLVMConstInt(i32Type, n, 0), genVReg());
+        for (int i = 0; i < n; i++) {
+            var index = LLVMBuildAdd(builder, base, LLVMConstInt(i32Type, i, 0), genVReg());
+            var key = LLVMBuildLoad(builder, buildMemoElement(curMemo.keys, index), genVReg());
+            var same = LLVMBuildICmp(builder, LLVMIntEQ, key, LLVMGetParam(curFunc, i), genVReg());
+            hit = LLVMBuildAnd(builder, hit, same, genVReg());
+        }
+
+        var HitBlock = cfg.newLabel(genVBlock("memohit"));
+        var MissBlock = cfg.newLabel(genVBlock("memomiss"));
+        cfg.condBr(hit, HitBlock, MissBlock);
+        cfg.position(HitBlock);
+        LLVMBuildRet(builder, LLVMBuildLoad(builder, buildMemoElement(curMemo.values, curMemo.slot), genVReg()));
+        cfg.terminate();
+        cfg.position(MissBlock);
+    }
+
+    // keys are the args as passed, the body may have assigned to the params since
+    private void buildMemoStore(LLVMValueRef val) {
+        int n = LLVMCountParams(curFunc);
+        var base = LLVMBuildMul(builder, curMemo.slot, LLVMConstInt(i32Type, n, 0), genVReg());
+        for (int i = 0; i < n; i++) {
+            var index = LLVMBuildAdd(builder, base, LLVMConstInt(i32Type, i, 0), genVReg());
+            LLVMBuildStore(builder, LLVMGetParam(curFunc, i), buildMemoElement(curMemo.keys, index));
         }
-        LLVMPositionBuilderAtEnd(builder, nextBlock.getBlock());
-        var DIn = DIs.get(DIs.size() - 1);
-        propNextBlock.put(DIn, propNextBlock.get(ctx));
-        return visit(DIn);
+        LLVMBuildStore(builder, val, buildMemoElement(curMemo.values, curMemo.slot));
+        LLVMBuildStore(builder, LLVMConstInt(i32Type, 1, 0), buildMemoElement(curMemo.used, curMemo.slot));
     }
 
     @Override
-    public LLVMValueRef visitBlockItem(SysYParser.BlockItemContext ctx) {
-        if (ctx.stmt() != null) { // DI -> S
-            propNextBlock.put(ctx.stmt(), propNextBlock.get(ctx));
+    public LLVMValueRef visitBlock(SysYParser.BlockContext ctx) {
+        /**
+         * D -> DI*
+         * 
+         * create blockScope
+         * for each DIk: visit DIk
+         * 
+         * items after a return/break/continue are dead, nothing can
+         * jump into the middle of a block so they are skipped
+         */
+        var blockScope = new Scope(currentScope.getName() + "_d");
+        blockScope.setParentScope(currentScope);
+        currentScope = blockScope;
+        for (var DI : ctx.blockItem()) {
+            if (!cfg.isReachable()) {
+                break;
+            }
+            visit(DI);
         }
-        return super.visitBlockItem(ctx);
+        currentScope = blockScope.getParentScope();
+        return this.defaultResult();
     }
 
     public LLVMValueRef visitConstDecl(SysYParser.ConstDeclContext ctx) {
@@ -359,11 +929,7 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
          * if global: gencode(globaldecl, iniVal)
          * else: gencode(inBlockDecl, iniVal)
          */
-        var btype = ctx.bType();
-        if (btype.INT() == null) {
-            throw new Error("non int currently unsupported.");
-        }
-        LLVMTypeRef curConstDeclType = i32Type;
+        LLVMTypeRef curConstDeclType = scalarType(ctx.bType());
 
         var constDefs = ctx.constDef();
 
@@ -372,24 +938,29 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
             String id = constDef.IDENT().getText();
             var tn = curConstDeclType;
             var iniValCtx = constDef.constInitVal();
-            // WARN:: This Lab wont have array so disable
-            // for (int j = 0; j < constDef.constExp().size(); j++) {
-            // // var exp = exps.get(j); wont resolve const exp's value
-            // tn = new ArrayType(tn, ARRAY_TYPE_LEN_PLACEHOLDER);
-            // }
-
-            // WARN:: assuming all value i32
-            var iniValRef = visit(iniValCtx.constExp().exp());
-            LLVMValueRef v;
+            if (!constDef.constExp().isEmpty()) {
+                var dims = arrayDims(id, constDef.constExp());
+                currentScope.setSymbol(id, buildArray(id, tn, dims, iniValCtx, true));
+                continue;
+            }
+
+            var iniValRef = buildConvert(visit(iniValCtx.constExp().exp()), tn);
+            Symbol symbol;
             if (currentScope.getName().equals(GLOBAL_NAME)) {
                 // global var
-                v = LLVMAddGlobal(module, tn, genVReg(id));
+                if (LLVMIsAConstant(iniValRef) == null) {
+                    throw new NotConstantError("initializer of global " + id, iniValCtx.getStart().getLine());
+                }
+                var v = LLVMAddGlobal(module, tn, id);
                 LLVMSetInitializer(v, iniValRef);
+                symbol = new Symbol(tn, id, v);
             } else {
-                v = LLVMBuildAlloca(builder, tn, genVReg(id));
-                LLVMBuildStore(builder, iniValRef, v);
+                symbol = buildLocal(tn, id, iniValRef);
+            }
+            if (LLVMIsAConstantInt(iniValRef) != null || LLVMIsAConstantFP(iniValRef) != null) {
+                symbol.setConstant(iniValRef);
             }
-            currentScope.setSymbol(id, new Symbol(tn, id, v));
+            currentScope.setSymbol(id, symbol);
         }
         return this.defaultResult();
     }
@@ -406,11 +977,7 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
          * if global: gencode(globaldecl, iniVal)
          * else: gencode(inBlockDecl, iniVal)
          */
-        var btype = ctx.bType();
-        if (btype.INT() == null) {
-            throw new Error("non int currently unsupported.");
-        }
-        LLVMTypeRef curDeclType = i32Type;
+        LLVMTypeRef curDeclType = scalarType(ctx.bType());
 
         var varDefs = ctx.varDef();
 
@@ -419,44 +986,306 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
             String id = varDef.IDENT().getText();
             var tn = curDeclType;
             var iniValCtx = varDef.initVal();
-            // WARN:: This Lab wont have array so disable
-            // for (int j = 0; j < constDef.constExp().size(); j++) {
-            // // var exp = exps.get(j); wont resolve const exp's value
-            // tn = new ArrayType(tn, ARRAY_TYPE_LEN_PLACEHOLDER);
-            // }
-
-            // WARN:: assuming all value i32
-            LLVMValueRef v;
+            if (!varDef.constExp().isEmpty()) {
+                var dims = arrayDims(id, varDef.constExp());
+                currentScope.setSymbol(id, buildArray(id, tn, dims, iniValCtx, false));
+                continue;
+            }
+
             LLVMValueRef iniValRef;
             if (iniValCtx != null) {
-                iniValRef = visit(iniValCtx.exp());
+                iniValRef = buildConvert(visit(iniValCtx.exp()), tn);
             } else {
-                iniValRef = zero;
+                iniValRef = LLVMConstNull(tn);
             }
 
             if (currentScope.getName().equals(GLOBAL_NAME)) {
                 // global var
-                v = LLVMAddGlobal(module, tn, genVReg(id));
+                if (LLVMIsAConstant(iniValRef) == null) {
+                    throw new NotConstantError("initializer of global " + id, iniValCtx.getStart().getLine());
+                }
+                var v = LLVMAddGlobal(module, tn, id);
                 LLVMSetInitializer(v, iniValRef);
+                currentScope.setSymbol(id, new Symbol(tn, id, v));
             } else {
-                v = LLVMBuildAlloca(builder, tn, genVReg(id));
-                LLVMBuildStore(builder, iniValRef, v);
+                currentScope.setSymbol(id, buildLocal(tn, id, iniValRef));
             }
-            currentScope.setSymbol(id, new Symbol(tn, id, v));
         }
         return this.defaultResult();
     }
 
+    // sizes of the dimensions declared for id, outermost first
+    private int[] arrayDims(String id, List<SysYParser.ConstExpContext> constExps) {
+        var dims = new int[constExps.size()];
+        for (int i = 0; i < dims.length; i++) {
+            var n = ConstExp.eval(constExps.get(i).exp(), this::lookupConst);
+            if (n == null || n < 0) {
+                throw new NotConstantError("size of array " + id, constExps.get(i).getStart().getLine());
+            }
+            dims[i] = n;
+        }
+        return dims;
+    }
+
+    private static LLVMTypeRef arrayType(LLVMTypeRef elem, int[] dims) {
+        var type = elem;
+        for (int i = dims.length - 1; i >= 0; i--) {
+            type = LLVMArrayType(type, dims[i]);
+        }
+        return type;
+    }
+
+    // scalars in a value of type
+    private static long flatSize(LLVMTypeRef type) {
+        long size = 1;
+        while (LLVMGetTypeKind(type) == LLVMArrayTypeKind) {
+            size *= LLVMGetArrayLength(type);
+            type = LLVMGetElementType(type);
+        }
+        return size;
+    }
+
+    private static boolean isArray(Symbol symbol) {
+        int kind = LLVMGetTypeKind(symbol.getType());
+        return kind == LLVMArrayTypeKind || kind == LLVMPointerTypeKind;
+    }
+
+    // subscripts that select a scalar of symbol, a param counts its leading []
+    private static int arrayDepth(Symbol symbol) {
+        var type = symbol.getType();
+        int depth = 0;
+        if (LLVMGetTypeKind(type) == LLVMPointerTypeKind) {
+            type = LLVMGetElementType(type);
+            depth++;
+        }
+        while (LLVMGetTypeKind(type) == LLVMArrayTypeKind) {
+            type = LLVMGetElementType(type);
+            depth++;
+        }
+        return depth;
+    }
+
+    /**
+     * the elements an initializer list sets, by flat (row major) index into
+     * an array of dims, in source order. a nested list fills the largest
+     * sub-array starting at the current position, as in C; the rest of the
+     * array is zero.
+     */
+    private TreeMap<Long, LLVMValueRef> flattenInit(ParseTree init, LLVMTypeRef elem, int[] dims) {
+        var values = new TreeMap<Long, LLVMValueRef>();
+        if (init != null) {
+            fillInit(init, elem, dims, 0, 0, values);
+        }
+        return values;
+    }
+
+    private void fillInit(ParseTree init, LLVMTypeRef elem, int[] dims, int level, long begin,
+            TreeMap<Long, LLVMValueRef> values) {
+        var sizes = new long[dims.length + 1];
+        sizes[dims.length] = 1;
+        for (int i = dims.length - 1; i >= 0; i--) {
+            sizes[i] = sizes[i + 1] * dims[i];
+        }
+        long pos = begin;
+        for (var item : initItems(init)) {
+            if (pos >= begin + sizes[level]) {
+                throw new Error("too many initializers");
+            }
+            var exp = initExp(item);
+            if (exp != null) {
+                values.put(pos++, buildConvert(visit(exp), elem));
+                continue;
+            }
+            int k = level + 1;
+            while (k < dims.length && (pos - begin) % sizes[k] != 0) {
+                k++;
+            }
+            if (k == dims.length) {
+                throw new Error("braces around a scalar initializer");
+            }
+            fillInit(item, elem, dims, k, pos, values);
+            pos += sizes[k];
+        }
+    }
+
+    // the items of a braced initializer, const or not
+    private static List<? extends ParseTree> initItems(ParseTree init) {
+        if (init instanceof SysYParser.ConstInitValContext) {
+            return ((SysYParser.ConstInitValContext) init).constInitVal();
+        }
+        return ((SysYParser.InitValContext) init).initVal();
+    }
+
+    // the exp of a scalar initializer, null for a braced one
+    private static SysYParser.ExpContext initExp(ParseTree init) {
+        if (init instanceof SysYParser.ConstInitValContext) {
+            var constExp = ((SysYParser.ConstInitValContext) init).constExp();
+            return constExp != null ? constExp.exp() : null;
+        }
+        return ((SysYParser.InitValContext) init).exp();
+    }
+
+    /**
+     * a global array, or a const local one with a constant initializer,
+     * becomes a global with a constant initializer; other local arrays
+     * a stack slot.
+     */
+    private Symbol buildArray(String id, LLVMTypeRef elem, int[] dims, ParseTree init, boolean isConst) {
+        var type = arrayType(elem, dims);
+        var values = flattenInit(init, elem, dims);
+        boolean isGlobal = currentScope.getName().equals(GLOBAL_NAME);
+        boolean constant = true;
+        for (var v : values.values()) {
+            constant &= LLVMIsAConstant(v) != null;
+        }
+        if (isGlobal && !constant) {
+            throw new NotConstantError("initializer of global " + id, ((ParserRuleContext) init).getStart().getLine());
+        }
+        if (isGlobal || (isConst && constant)) {
+            var name = isGlobal ? id : curFuncNode.getName() + "." + genVReg(id);
+            var mem = buildGlobalArray(name, type, values);
+            var global = LLVMIsAGlobalVariable(mem) != null ? mem : LLVMGetOperand(mem, 0);
+            LLVMSetGlobalConstant(global, isConst ? 1 : 0);
+            if (!isGlobal) {
+                LLVMSetLinkage(global, LLVMInternalLinkage);
+                LLVMSetUnnamedAddr(global, 1);
+            }
+            return new Symbol(type, id, mem);
+        }
+        var mem = buildEntryAlloca(type, genVReg(id));
+        if (init != null) {
+            buildLocalArrayInit(mem, type, values);
+        }
+        return new Symbol(type, id, mem);
+    }
+
+    private static boolean isZero(LLVMValueRef v) {
+        return LLVMIsAConstant(v) != null && LLVMIsNull(v) != 0;
+    }
+
+    /**
+     * the initializer of a global array is built from the set elements
+     * only: a sub-array with none is a zeroinitializer, a row with some
+     * a constant data array. when the last MIN_ZERO_TAIL or more scalars
+     * are all zero the global is a struct of the head and a zeroed tail
+     * (as clang does), so they take no room in the object file; the
+     * returned address is then a cast of the global to the array type.
+     */
+    private LLVMValueRef buildGlobalArray(String name, LLVMTypeRef type, TreeMap<Long, LLVMValueRef> values) {
+        long last = -1;
+        for (var e : values.entrySet()) {
+            if (!isZero(e.getValue())) {
+                last = e.getKey();
+            }
+        }
+        int n = LLVMGetArrayLength(type);
+        var elem = LLVMGetElementType(type);
+        long elemSize = flatSize(elem);
+        int head = (int) (last / elemSize + 1);
+        if (last < 0 || (n - head) * elemSize < MIN_ZERO_TAIL) {
+            var global = LLVMAddGlobal(module, type, name);
+            LLVMSetInitializer(global, buildConstArray(type, values, 0));
+            return global;
+        }
+        var fields = new PointerPointer<>(2)
+                .put(0, buildConstArray(LLVMArrayType(elem, head), values, 0))
+                .put(1, LLVMConstNull(LLVMArrayType(elem, n - head)));
+        var init = LLVMConstStructInContext(context, fields, 2, 0);
+        var global = LLVMAddGlobal(module, LLVMTypeOf(init), name);
+        LLVMSetInitializer(global, init);
+        return LLVMConstBitCast(global, LLVMPointerType(type, 0));
+    }
+
+    // constant of type for the scalars from begin on, LLVMConstArray makes data arrays of int rows
+    private LLVMValueRef buildConstArray(LLVMTypeRef type, TreeMap<Long, LLVMValueRef> values, long begin) {
+        long size = flatSize(type);
+        var part = values.subMap(begin, begin + size);
+        if (part.values().stream().allMatch(LLVMIRGenVisitor::isZero)) {
+            return LLVMConstNull(type);
+        }
+        if (LLVMGetTypeKind(type) != LLVMArrayTypeKind) {
+            return part.get(begin);
+        }
+        int n = LLVMGetArrayLength(type);
+        var elem = LLVMGetElementType(type);
+        long elemSize = size / n;
+        var elems = new PointerPointer<>(n);
+        for (int i = 0; i < n; i++) {
+            elems.put(i, buildConstArray(elem, values, begin + i * elemSize));
+        }
+        return LLVMConstArray(elem, elems, n);
+    }
+
+    /**
+     * a local array with an initializer: one memset zeroes it unless every
+     * element is given, then only the elements set to something other than
+     * a constant zero are stored.
+     */
+    private void buildLocalArrayInit(LLVMValueRef mem, LLVMTypeRef type, TreeMap<Long, LLVMValueRef> values) {
+        long size = flatSize(type);
+        boolean zeroed = values.size() < size;
+        if (zeroed) {
+            var bytes = LLVMBuildBitCast(builder, mem, LLVMPointerType(LLVMInt8TypeInContext(context), 0), genVReg());
+            var length = LLVMConstInt(LLVMInt64TypeInContext(context), size * 4, 0); // 4 byte elements
+            LLVMBuildMemSet(builder, bytes, LLVMConstInt(LLVMInt8TypeInContext(context), 0, 0), length, 4);
+        }
+        for (var e : values.entrySet()) {
+            if (zeroed && isZero(e.getValue())) {
+                continue;
+            }
+            var indices = new ArrayList<LLVMValueRef>();
+            indices.add(zero);
+            long rest = e.getKey();
+            for (var t = type; LLVMGetTypeKind(t) == LLVMArrayTypeKind; t = LLVMGetElementType(t)) {
+                long stride = flatSize(LLVMGetElementType(t));
+                indices.add(LLVMConstInt(i32Type, rest / stride, 0));
+                rest %= stride;
+            }
+            LLVMBuildStore(builder, e.getValue(), buildGEP(mem, indices));
+        }
+    }
+
+    private LLVMValueRef buildGEP(LLVMValueRef base, List<LLVMValueRef> indices) {
+        var refs = new PointerPointer<>(indices.size());
+        for (int i = 0; i < indices.size(); i++) {
+            refs.put(i, indices.get(i));
+        }
+        return LLVMBuildInBoundsGEP(builder, base, refs, indices.size(), genVReg());
+    }
+
+    /**
+     * address of the element ctx selects, one gep for all subscripts. with
+     * fewer subscripts than dimensions it is a sub-array, which decays to a
+     * pointer to its first element like an array passed to a param.
+     */
+    private LLVMValueRef buildLValAddress(Symbol symbol, SysYParser.LValContext ctx) {
+        var indices = new ArrayList<LLVMValueRef>();
+        LLVMValueRef base;
+        var type = symbol.getType(); // what the next subscript selects from
+        if (LLVMGetTypeKind(type) == LLVMPointerTypeKind) { // param, already decayed
+            base = buildReadSymbol(symbol);
+        } else {
+            base = symbol.getValueMem();
+            indices.add(zero);
+        }
+        for (var exp : ctx.exp()) {
+            indices.add(visit(exp));
+            type = LLVMGetElementType(type);
+        }
+        if (LLVMGetTypeKind(type) == LLVMArrayTypeKind) {
+            indices.add(zero);
+        }
+        return indices.isEmpty() ? base : buildGEP(base, indices);
+    }
+
     @Override
     public LLVMValueRef visitLVal(SysYParser.LValContext ctx) {
         /**
-         * WARN:: Assuming only have: LVal -> IDEND, no LVal IDENT ([ exp ])+
-         * 
          * returns mem ref instead of val itself, caller need to load from mem
          */
         var id = ctx.IDENT().getText();
         var symbol = currentScope.getSymbolGlobal(id);
-        return symbol.getValueMem();
+        return isArray(symbol) ? buildLValAddress(symbol, ctx) : symbol.getValueMem();
     }
 
     @Override
@@ -466,120 +1295,408 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
              * local.v = exp ? exp.v : null
              * gencode(return local.v)
              */
+            if (!inlineStack.isEmpty()) { // return of an inlined call
+                var frame = inlineStack.peek();
+                if (ctx.exp() != null) {
+                    buildWriteSymbol(frame.result, buildConvert(visit(ctx.exp()), frame.result.getType()));
+                }
+                cfg.br(frame.exit);
+                return this.defaultResult();
+            }
+            var call = CallGraph.getTailCall(ctx);
+            if (call != null && tailCallLabel != null && isSelfCall(call)) {
+                buildSelfTailCall(call.funcRParams());
+                return this.defaultResult();
+            }
             if (ctx.exp() != null) {
-                LLVMBuildRet(builder, visit(ctx.exp()));
+                var val = buildConvert(visit(ctx.exp()), LLVMGetReturnType(LLVMGlobalGetValueType(curFunc)));
+                if (curMemo != null) {
+                    buildMemoStore(val);
+                }
+                storePromoted(curFuncPromoted);
+                LLVMBuildRet(builder, val);
             } else {
+                storePromoted(curFuncPromoted);
                 LLVMBuildRetVoid(builder);
             }
+            cfg.terminate();
             return this.defaultResult();
         } else if (ctx.ASSIGN() != null) { // stmt -> lVal = exp;
             /**
-             * get lval's mem
              * get exp's val
-             * store val to mem
+             * get lval's mem
+             * store val to mem (or make val the current def under ssa)
              */
-            var mem = visit(ctx.lVal());
             var val = visit(ctx.exp());
-            LLVMBuildStore(builder, val, mem);
+            buildWriteLVal(ctx.lVal(), val);
         } else if (ctx.exp() != null) { // stmt -> exp;
             visit(ctx.exp());
         } else if (ctx.BREAK() != null) { // stmt -> break;
-            var ExitBlock = whileExitStack.peek();
-            LLVMBuildBr(builder, ExitBlock.getBlock());
-            ExitBlock.setUsed(true);
+            cfg.br(whileExitStack.peek());
         } else if (ctx.CONTINUE() != null) { // stmt -> continue;
-            var BeginBlock = whileBeginStack.peek();
-            LLVMBuildBr(builder, BeginBlock.getBlock());
-            BeginBlock.setUsed(true);
+            cfg.br(whileBeginStack.peek());
         } else if (ctx.IF() != null && ctx.ELSE() == null) { // S -> if ( B ) S0
             /**
-             * B.ture = new Block()
-             * B.false = S0.next = S.next
-             * S.code = B.code || label(B.true) || S0.code
+             * B.true = new()
+             * B.false = next = new()
+             * build B
+             * switch to B.true
+             * build S0
+             * switch to next
              */
-            var TrueBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("ifbody")));
+            var TrueBlock = cfg.newLabel(genVBlock("ifbody"));
+            var NextBlock = cfg.newLabel(genVBlock("ifnext"));
             propTrueBlock.put(ctx.cond(), TrueBlock);
-            propNextBlock.put(ctx.stmt(0), propNextBlock.get(ctx));
-            propFalseBlock.put(ctx.cond(), propNextBlock.get(ctx));
+            propFalseBlock.put(ctx.cond(), NextBlock);
 
             visit(ctx.cond());
 
-            LLVMPositionBuilderAtEnd(builder, TrueBlock.getBlock()); // jump is done in B
+            cfg.position(TrueBlock); // jump is done in B
+            visitReachable(ctx.stmt(0));
 
-            visit(ctx.stmt(0));
+            cfg.position(NextBlock);
+        } else if (ctx.IF() != null && buildSwitchChain(ctx)) {
+            return this.defaultResult();
         } else if (ctx.IF() != null) { // S -> if ( B ) S0 else S1
             /**
              * B.true = new()
              * B.false = new()
-             * S1.next = S0.next = S.next
+             * next = new()
              * build B
              * switch to B.true
              * build S0
-             * gen goto S0.next
+             * gen goto next
              * 
              * switch to B.false
              * build S1
+             * switch to next
              */
-            var TrueBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("ifbody")));
-            var FalseBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("elsebody")));
+            var TrueBlock = cfg.newLabel(genVBlock("ifbody"));
+            var FalseBlock = cfg.newLabel(genVBlock("elsebody"));
+            var NextBlock = cfg.newLabel(genVBlock("ifnext"));
             propTrueBlock.put(ctx.cond(), TrueBlock);
             propFalseBlock.put(ctx.cond(), FalseBlock);
-            propNextBlock.put(ctx.stmt(0), propNextBlock.get(ctx));
-            propNextBlock.put(ctx.stmt(1), propNextBlock.get(ctx));
 
             visit(ctx.cond());
 
-            LLVMPositionBuilderAtEnd(builder, TrueBlock.getBlock());
-            visit(ctx.stmt(0));
-            LLVMBuildBr(builder, propNextBlock.get(ctx.stmt(0)).getBlock());
-            propNextBlock.get(ctx.stmt(0)).setUsed(true);
+            cfg.position(TrueBlock);
+            visitReachable(ctx.stmt(0));
+            cfg.br(NextBlock);
 
-            LLVMPositionBuilderAtEnd(builder, FalseBlock.getBlock());
-            visit(ctx.stmt(1));
+            cfg.position(FalseBlock);
+            visitReachable(ctx.stmt(1));
 
+            cfg.position(NextBlock);
         } else if (ctx.WHILE() != null) { // S -> while ( B ) S0
-            /**
-             * begin = new()
-             * B.true = new()
-             * B.false = S.next
-             * S0.next = begin
-             * 
-             * link cur to begin
-             * switch to begin
-             * build B
-             * switch to B.true
-             * build S
-             * gen goto begin
-             */
-            var BeginBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("whilebegin")));
-            var TrueBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("whilebody")));
-            propTrueBlock.put(ctx.cond(), TrueBlock);
-            propFalseBlock.put(ctx.cond(), propNextBlock.get(ctx));
-            propNextBlock.put(ctx.stmt(0), BeginBlock);
+            if (!buildUnrolledWhile(ctx)) {
+                buildWhile(ctx);
+            }
+        } else if (ctx.block() != null) { // S -> D
+            visit(ctx.block());
+        }
+        return this.defaultResult();
+    }
 
-            LLVMBuildBr(builder, BeginBlock.getBlock());
-            BeginBlock.setUsed(true);
-            LLVMPositionBuilderAtEnd(builder, BeginBlock.getBlock());
-            visit(ctx.cond());
+    // if (x == c) or if (c == x) on a scalar: x's name and c, null for other conds
+    private Map.Entry<String, Integer> matchCase(SysYParser.CondContext cond) {
+        if (cond.EQ() == null || cond.cond(0).exp() == null || cond.cond(1).exp() == null) {
+            return null;
+        }
+        for (int i = 0; i < 2; i++) {
+            var lVal = cond.cond(i).exp().lVal();
+            var c = ConstExp.eval(cond.cond(1 - i).exp(), this::lookupConst);
+            if (lVal != null && lVal.exp().isEmpty() && c != null && lookupConst(lVal.IDENT().getText()) == null) {
+                return Map.entry(lVal.IDENT().getText(), c);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * if (x == c1) S1 else if (x == c2) S2 ... else Sn with distinct
+     * constants becomes one switch on x, llvm picks a jump table or a
+     * search for it. the chain ends at the first arm testing something
+     * else or a constant seen before, that arm is the default. false if
+     * there are fewer than MIN_SWITCH_CASES arms.
+     */
+    private boolean buildSwitchChain(SysYParser.StmtContext ctx) {
+        String var = null;
+        var arms = new ArrayList<SysYParser.StmtContext>();
+        var seen = new ArrayList<Integer>();
+        SysYParser.StmtContext otherwise = ctx;
+        while (otherwise != null && otherwise.IF() != null) {
+            var test = matchCase(otherwise.cond());
+            if (test == null || (var != null && !var.equals(test.getKey())) || seen.contains(test.getValue())) {
+                break;
+            }
+            var = test.getKey();
+            seen.add(test.getValue());
+            arms.add(otherwise);
+            otherwise = otherwise.ELSE() != null ? otherwise.stmt(1) : null;
+        }
+        if (arms.size() < MIN_SWITCH_CASES || !currentScope.getSymbolGlobal(var).getType().equals(i32Type)) {
+            return false;
+        }
 
-            whileBeginStack.push(BeginBlock);
-            whileExitStack.push(propNextBlock.get(ctx));
+        var NextBlock = cfg.newLabel(genVBlock("switchnext"));
+        var DefaultBlock = otherwise != null ? cfg.newLabel(genVBlock("switchdefault")) : NextBlock;
+        var cases = new ArrayList<LLVMValueRef>();
+        var targets = new ArrayList<CFGBuilder.Label>();
+        for (var c : seen) {
+            cases.add(LLVMConstInt(i32Type, c, 1));
+            targets.add(cfg.newLabel(genVBlock("case")));
+        }
+        cfg.switchBr(buildReadSymbol(currentScope.getSymbolGlobal(var)), DefaultBlock, cases, targets);
 
-            LLVMPositionBuilderAtEnd(builder, TrueBlock.getBlock());
-            visit(ctx.stmt(0));
+        for (int i = 0; i < arms.size(); i++) {
+            cfg.position(targets.get(i));
+            visitReachable(arms.get(i).stmt(0));
+            cfg.br(NextBlock);
+        }
+        if (otherwise != null) {
+            cfg.position(DefaultBlock);
+            visitReachable(otherwise);
+            cfg.br(NextBlock);
+        }
+        cfg.position(NextBlock);
+        return true;
+    }
 
-            whileBeginStack.pop();
-            whileExitStack.pop();
+    private void buildWhile(SysYParser.StmtContext ctx) {
+        var promoted = new ArrayList<PromotedGlobal>();
+        var promotedScope = options.promoteGlobals && !hasReturn(ctx) ? promoteGlobals(ctx, 1, promoted) : null;
+        if (promotedScope != null) {
+            currentScope = promotedScope;
+        }
+        if (options.invertLoops) {
+            buildInvertedWhile(ctx);
+        } else {
+            buildTopTestedWhile(ctx);
+        }
+        if (promotedScope != null) {
+            currentScope = promotedScope.getParentScope();
+            storePromoted(promoted); // break and the condition both leave through the exit
+        }
+    }
 
-        } else if (ctx.block() != null) { // S -> D
-            /**
-             * D.next = S.next
-             * build D
-             */
-            propNextBlock.put(ctx.block(), propNextBlock.get(ctx));
-            visit(ctx.block());
+    private static boolean hasReturn(ParseTree tree) {
+        if (tree instanceof SysYParser.StmtContext && ((SysYParser.StmtContext) tree).RETURN() != null) {
+            return true;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (hasReturn(tree.getChild(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void collectUses(ParseTree tree, Map<String, Integer> uses, List<String> callees) {
+        if (tree instanceof SysYParser.LValContext) {
+            uses.merge(((SysYParser.LValContext) tree).IDENT().getText(), 1, Integer::sum);
+        } else if (tree instanceof SysYParser.ExpContext && ((SysYParser.ExpContext) tree).IDENT() != null) {
+            callees.add(((SysYParser.ExpContext) tree).IDENT().getText());
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collectUses(tree.getChild(i), uses, callees);
+        }
+    }
+
+    /**
+     * scalar promotion: every global variable used at least minUses times
+     * in region that no call in region may touch (see CallGraph) is read
+     * into a local before it. returns a scope over currentScope mapping
+     * their names to the locals, null if there are none. the caller
+     * generates region in that scope and calls storePromoted wherever
+     * control leaves it.
+     */
+    private Scope promoteGlobals(ParseTree region, int minUses, List<PromotedGlobal> promoted) {
+        if (!cfg.isReachable()) {
+            return null;
+        }
+        var uses = new HashMap<String, Integer>();
+        var callees = new ArrayList<String>();
+        collectUses(region, uses, callees);
+        Scope scope = null;
+        for (var use : uses.entrySet()) {
+            var name = use.getKey();
+            var symbol = currentScope.getSymbolGlobal(name);
+            if (use.getValue() < minUses || symbol == null || symbol != globalScope.getSymbol(name)
+                    || symbol.getConstant() != null || isArray(symbol)
+                    || LLVMIsAGlobalVariable(symbol.getValueMem()) == null) {
+                continue;
+            }
+            boolean touched = false;
+            for (var callee : callees) {
+                touched |= callGraph.touchesGlobal(callee, name);
+            }
+            if (touched) {
+                continue;
+            }
+            if (scope == null) {
+                scope = new Scope(currentScope.getName() + "_promoted");
+                scope.setParentScope(currentScope);
+            }
+            var local = buildLocal(symbol.getType(), name, buildReadSymbol(symbol));
+            scope.setSymbol(name, local);
+            promoted.add(new PromotedGlobal(symbol, local, CallGraph.assigns(region, name)));
+        }
+        return scope;
+    }
+
+    private void storePromoted(List<PromotedGlobal> promoted) {
+        if (!cfg.isReachable()) {
+            return;
+        }
+        for (var p : promoted) {
+            if (p.written) {
+                buildWriteSymbol(p.global, buildReadSymbol(p.local));
+            }
+        }
+    }
+
+    private void buildTopTestedWhile(SysYParser.StmtContext ctx) {
+        /**
+         * begin = new()
+         * B.true = new()
+         * B.false = exit = new()
+         * 
+         * switch to begin (falls through from cur)
+         * build B
+         * switch to B.true
+         * build S0
+         * gen goto begin
+         * switch to exit
+         */
+        var BeginBlock = cfg.newLabel(genVBlock("whilebegin"));
+        var TrueBlock = cfg.newLabel(genVBlock("whilebody"));
+        var ExitBlock = cfg.newLabel(genVBlock("whileexit"));
+        propTrueBlock.put(ctx.cond(), TrueBlock);
+        propFalseBlock.put(ctx.cond(), ExitBlock);
+
+        cfg.positionUnsealed(BeginBlock);
+        visit(ctx.cond());
+
+        whileBeginStack.push(BeginBlock);
+        whileExitStack.push(ExitBlock);
+
+        cfg.position(TrueBlock);
+        visitReachable(ctx.stmt(0));
+        cfg.br(BeginBlock);
+        cfg.seal(BeginBlock);
+
+        whileBeginStack.pop();
+        whileExitStack.pop();
+
+        cfg.position(ExitBlock);
+    }
+
+    private void buildInvertedWhile(SysYParser.StmtContext ctx) {
+        /**
+         * B.true = body = new()
+         * B.false = exit = new()
+         * latch = new()
+         *
+         * build B (the guard)
+         * switch to body, unsealed
+         * build S0
+         * switch to latch (falls through from S0, continue jumps here)
+         * build B again, its true edge is the back edge
+         * switch to exit
+         */
+        var BodyBlock = cfg.newLabel(genVBlock("whilebody"));
+        var LatchBlock = cfg.newLabel(genVBlock("whilelatch"));
+        var ExitBlock = cfg.newLabel(genVBlock("whileexit"));
+        propTrueBlock.put(ctx.cond(), BodyBlock);
+        propFalseBlock.put(ctx.cond(), ExitBlock);
+
+        visitReachable(ctx.cond());
+
+        whileBeginStack.push(LatchBlock);
+        whileExitStack.push(ExitBlock);
+
+        cfg.positionUnsealed(BodyBlock);
+        visitReachable(ctx.stmt(0));
+        cfg.position(LatchBlock);
+        visitReachable(ctx.cond());
+        cfg.seal(BodyBlock);
+
+        whileBeginStack.pop();
+        whileExitStack.pop();
+
+        cfg.position(ExitBlock);
+    }
+
+    private Integer lookupConst(String id) {
+        var symbol = currentScope.getSymbolGlobal(id);
+        return symbol != null ? symbol.getConstValue() : null;
+    }
+
+    /**
+     * unroll a loop with a trip count known here (see CountedLoop). small
+     * ones are replaced by copies of the body, larger ones get a loop
+     * running unrollFactor copies per iteration, the iterations left over
+     * run in the original loop. false if the loop is kept as it is.
+     */
+    private boolean buildUnrolledWhile(SysYParser.StmtContext ctx) {
+        if (options.unrollLimit <= 0) {
+            return false;
+        }
+        var counted = CountedLoop.match(ctx, this::lookupConst);
+        if (counted == null) {
+            return false;
+        }
+        var symbol = currentScope.getSymbolGlobal(counted.getVar());
+        if (symbol == null || symbol == globalScope.getSymbol(counted.getVar())) {
+            return false; // a call in the body could change a global
+        }
+        if (!symbol.getType().equals(i32Type)) {
+            return false;
+        }
+        long trips = counted.getTripCount();
+        long size = counted.getBodySize();
+        if (trips * size <= options.unrollLimit) {
+            for (long k = 0; k < trips; k++) {
+                visitReachable(counted.getBody());
+            }
+            return true;
+        }
+        int factor = options.unrollFactor;
+        if (factor <= 1 || trips < factor || factor * size > options.unrollLimit) {
+            return false;
+        }
+        // i < end - factor + 1 leaves room for factor more iterations
+        var BeginBlock = cfg.newLabel(genVBlock("unrollbegin"));
+        var TrueBlock = cfg.newLabel(genVBlock("unrollbody"));
+        var ExitBlock = cfg.newLabel(genVBlock("unrollexit"));
+        cfg.positionUnsealed(BeginBlock);
+        var limit = LLVMConstInt(i32Type, (long) counted.getEnd() - factor + 1, 1);
+        var cond = LLVMBuildICmp(builder, LLVMIntSLT, buildReadSymbol(symbol), limit, genVReg());
+        cfg.condBr(cond, TrueBlock, ExitBlock);
+
+        whileBeginStack.push(BeginBlock);
+        whileExitStack.push(ExitBlock);
+        cfg.position(TrueBlock);
+        for (int k = 0; k < factor; k++) {
+            visitReachable(counted.getBody());
+        }
+        cfg.br(BeginBlock);
+        cfg.seal(BeginBlock);
+        whileBeginStack.pop();
+        whileExitStack.pop();
+
+        cfg.position(ExitBlock);
+        if (trips % factor != 0 && cfg.isReachable()) {
+            buildWhile(ctx); // remainder
+        }
+        return true;
+    }
+
+    // dead code after a jump or in a branch never taken is not generated
+    private void visitReachable(ParseTree ctx) {
+        if (cfg.isReachable()) {
+            visit(ctx);
         }
-        return this.defaultResult();
     }
 
     @Override
@@ -599,15 +1716,15 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
             var B0 = ctx.cond(0);
             var B1 = ctx.cond(1);
 
-            var B0TrueBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("true")));
+            var B0TrueBlock = cfg.newLabel(genVBlock("true"));
             propTrueBlock.put(B0, B0TrueBlock);
             propTrueBlock.put(B1, BTrueBlock);
             propFalseBlock.put(B0, BFalseBlock);
             propFalseBlock.put(B1, BFalseBlock);
 
             visit(B0);
-            LLVMPositionBuilderAtEnd(builder, B0TrueBlock.getBlock());
-            visit(B1);
+            cfg.position(B0TrueBlock);
+            visitReachable(B1);
         } else if (ctx.OR() != null) { // B-> B0 || B1
             /**
              * B0.false = new()
@@ -621,118 +1738,107 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
             var B0 = ctx.cond(0);
             var B1 = ctx.cond(1);
 
-            var B0FalseBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("false")));
+            var B0FalseBlock = cfg.newLabel(genVBlock("false"));
             propFalseBlock.put(B0, B0FalseBlock);
             propFalseBlock.put(B1, BFalseBlock);
             propTrueBlock.put(B0, BTrueBlock);
             propTrueBlock.put(B1, BTrueBlock);
 
             visit(B0);
-            LLVMPositionBuilderAtEnd(builder, B0FalseBlock.getBlock());
-            visit(B1);
+            cfg.position(B0FalseBlock);
+            visitReachable(B1);
         } else if (ctx.exp() != null) { // B -> E
             /**
              * gen E: true:goto B.true, false:goto B.false
              */
-            var v = visit(ctx.exp());
-            var con = LLVMBuildICmp(builder, LLVMIntNE, v, zero, genVReg("con"));
-            LLVMBuildCondBr(builder, con, BTrueBlock.getBlock(), BFalseBlock.getBlock());
-            BTrueBlock.setUsed(true);
-            BFalseBlock.setUsed(true);
+            cfg.condBr(buildIsTrue(visit(ctx.exp())), BTrueBlock, BFalseBlock);
         } else { // B -> B0 OP B1
             /**
-             * LLVMValueRef valV0, valB1
-             * if B0 -> exp:
-             * valB0 = exp.val
-             * else:
-             * B0.true = new()
-             * B0.false = new()
-             * resb = new()
-             * 
-             * var mem = alloc
-             * build B0
-             * 
-             * switch B0.true
-             * store 1 to mem
-             * br resb
-             * 
-             * switch B0.false
-             * store 0 to mem
-             * 
-             * switch resb
-             * valB0 = load mem
-             * 
-             * same to B1
-             * 
-             * LLVMValueRef res = valB0 OP valB1
+             * valB0 = B0 -> exp ? exp.val : zext(value of B0)
+             * valB1 = same for B1
+             * res = valB0 OP valB1
              * br res true:B.true false:B.false
              */
-            LLVMValueRef valB0, valB1;
-            var B0 = ctx.cond(0);
-            var B1 = ctx.cond(1);
-            if (B0.exp() != null) {
-                valB0 = visit(B0.exp());
-            } else {
-                var TrueBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("true")));
-                var FalseBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("false")));
-                var RestBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("rest")));
-                propTrueBlock.put(B0, TrueBlock);
-                propFalseBlock.put(B0, FalseBlock);
+            var varRes = buildRelCmp(ctx);
+            cfg.condBr(varRes, BTrueBlock, BFalseBlock);
+        }
+        return this.defaultResult();
+    }
 
-                var mem = LLVMBuildAlloca(builder, i32Type, genVReg("mem0"));
-                visit(B0);
+    private LLVMValueRef buildRelCmp(SysYParser.CondContext ctx) {
+        var valB0 = buildCondOperand(ctx.cond(0));
+        var valB1 = buildCondOperand(ctx.cond(1));
+        if (isFloat(valB0) || isFloat(valB1)) {
+            return buildFloatCmp(ctx, buildConvert(valB0, floatType), buildConvert(valB1, floatType));
+        }
+        int pred;
+        if (ctx.LT() != null) {
+            pred = LLVMIntSLT;
+        } else if (ctx.GT() != null) {
+            pred = LLVMIntSGT;
+        } else if (ctx.LE() != null) {
+            pred = LLVMIntSLE;
+        } else if (ctx.GE() != null) {
+            pred = LLVMIntSGE;
+        } else if (ctx.EQ() != null) {
+            pred = LLVMIntEQ;
+        } else { // (ctx.NEQ() != null)
+            pred = LLVMIntNE;
+        }
+        return LLVMBuildICmp(builder, pred, valB0, valB1, genVReg());
+    }
+
+    // ordered except for !=, which like in C holds for a nan
+    private LLVMValueRef buildFloatCmp(SysYParser.CondContext ctx, LLVMValueRef valB0, LLVMValueRef valB1) {
+        int pred;
+        if (ctx.LT() != null) {
+            pred = LLVMRealOLT;
+        } else if (ctx.GT() != null) {
+            pred = LLVMRealOGT;
+        } else if (ctx.LE() != null) {
+            pred = LLVMRealOLE;
+        } else if (ctx.GE() != null) {
+            pred = LLVMRealOGE;
+        } else if (ctx.EQ() != null) {
+            pred = LLVMRealOEQ;
+        } else { // (ctx.NEQ() != null)
+            pred = LLVMRealUNE;
+        }
+        return LLVMBuildFCmp(builder, pred, valB0, valB1, genVReg());
+    }
 
-                LLVMPositionBuilderAtEnd(builder, TrueBlock.getBlock());
-                LLVMBuildStore(builder, LLVMConstInt(i32Type, 1, 0), mem);
-                LLVMBuildBr(builder, RestBlock.getBlock());
+    // operand of a relational cond: a plain exp keeps its value, a sub cond is 0 or 1
+    private LLVMValueRef buildCondOperand(SysYParser.CondContext ctx) {
+        if (ctx.exp() != null) {
+            return visit(ctx.exp());
+        }
+        return LLVMBuildZExt(builder, buildCondValue(ctx), i32Type, genVReg("vb"));
+    }
 
-                LLVMPositionBuilderAtEnd(builder, FalseBlock.getBlock());
-                LLVMBuildStore(builder, zero, mem);
+    /**
+     * i1 value of a cond without jumping to B.true/B.false. an operand of
+     * a relational cond is an exp or another relational cond (there are no
+     * parenthesized conds), so this is never && or ||.
+     */
+    private LLVMValueRef buildCondValue(SysYParser.CondContext ctx) {
+        if (ctx.exp() != null) {
+            return buildIsTrue(visit(ctx.exp()));
+        }
+        return buildRelCmp(ctx);
+    }
 
-                LLVMPositionBuilderAtEnd(builder, RestBlock.getBlock());
-                valB0 = LLVMBuildLoad(builder, mem, genVBlock("vb0"));
-            }
-            if (B1.exp() != null) {
-                valB1 = visit(B1.exp());
-            } else {
-                var TrueBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("true")));
-                var FalseBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("false")));
-                var RestBlock = new BasicBlock(LLVMAppendBasicBlock(curFunc, genVBlock("rest")));
-                propTrueBlock.put(B1, TrueBlock);
-                propFalseBlock.put(B1, FalseBlock);
-
-                var mem = LLVMBuildAlloca(builder, i32Type, genVReg("mem1"));
-                visit(B1);
-
-                LLVMPositionBuilderAtEnd(builder, TrueBlock.getBlock());
-                LLVMBuildStore(builder, LLVMConstInt(i32Type, 1, 0), mem);
-                LLVMBuildBr(builder, RestBlock.getBlock());
-
-                LLVMPositionBuilderAtEnd(builder, FalseBlock.getBlock());
-                LLVMBuildStore(builder, LLVMConstInt(i32Type, 0, 0), mem);
-
-                LLVMPositionBuilderAtEnd(builder, RestBlock.getBlock());
-                valB1 = LLVMBuildLoad(builder, mem, genVBlock("vb1"));
-            }
-            LLVMValueRef varRes;
-            if (ctx.LT() != null) {
-                varRes = LLVMBuildICmp(builder, LLVMIntSLT, valB0, valB1, genVReg());
-            } else if (ctx.GT() != null) {
-                varRes = LLVMBuildICmp(builder, LLVMIntSGT, valB0, valB1, genVReg());
-            } else if (ctx.LE() != null) {
-                varRes = LLVMBuildICmp(builder, LLVMIntSLE, valB0, valB1, genVReg());
-            } else if (ctx.GE() != null) {
-                varRes = LLVMBuildICmp(builder, LLVMIntSGE, valB0, valB1, genVReg());
-            } else if (ctx.EQ() != null) {
-                varRes = LLVMBuildICmp(builder, LLVMIntEQ, valB0, valB1, genVReg());
-            } else { // (ctx.NEQ() != null)
-                varRes = LLVMBuildICmp(builder, LLVMIntNE, valB0, valB1, genVReg());
-            }
-            LLVMBuildCondBr(builder, varRes, BTrueBlock.getBlock(), BFalseBlock.getBlock());
-            BTrueBlock.setUsed(true);
-            BFalseBlock.setUsed(true);
+    // an int operand was converted already, constants fold
+    private LLVMValueRef buildFloatArith(SysYParser.ExpContext ctx, LLVMValueRef exp0vref, LLVMValueRef exp1vref) {
+        if (ctx.MUL() != null) {
+            return LLVMBuildFMul(builder, exp0vref, exp1vref, genVReg());
+        } else if (ctx.DIV() != null) {
+            return LLVMBuildFDiv(builder, exp0vref, exp1vref, genVReg());
+        } else if (ctx.PLUS() != null) {
+            return LLVMBuildFAdd(builder, exp0vref, exp1vref, genVReg());
+        } else if (ctx.MINUS() != null) {
+            return LLVMBuildFSub(builder, exp0vref, exp1vref, genVReg());
         }
-        return this.defaultResult();
+        throw new Error("operands of % must be int");
     }
 
     @Override
@@ -747,6 +1853,9 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
             /**
              * this.val = int(this.number.string)
              */
+            if (ctx.number().FLOAT_CONST() != null) {
+                return LLVMConstReal(floatType, Float.parseFloat(ctx.number().getText()));
+            }
             int value = Integer.decode(ctx.number().getText());
             return LLVMConstInt(i32Type, value, 0);
         } else if (ctx.unaryOp() != null) { // exp -> unaryOp exp0
@@ -756,14 +1865,19 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
              */
             var exp0vref = visit(ctx.exp(0));
             LLVMValueRef expvref;
-            if (ctx.unaryOp().NOT() != null) {
+            if (ctx.unaryOp().NOT() != null && isFloat(exp0vref)) {
+                expvref = LLVMBuildFCmp(builder, LLVMRealOEQ, exp0vref, LLVMConstNull(floatType), genVReg());
+                expvref = LLVMBuildZExt(builder, expvref, i32Type, genVReg());
+            } else if (ctx.unaryOp().NOT() != null) {
                 expvref = LLVMBuildICmp(builder, LLVMIntNE, LLVMConstInt(i32Type, 0, 0), exp0vref, genVReg());
-                expvref = LLVMBuildXor(builder, expvref, LLVMConstInt(LLVMInt1Type(), 1, 0), genVReg());
+                expvref = LLVMBuildXor(builder, expvref, LLVMConstInt(LLVMInt1TypeInContext(context), 1, 0), genVReg());
                 expvref = LLVMBuildZExt(builder, expvref, i32Type, genVReg());
             } else if (ctx.unaryOp().PLUS() != null) {
                 expvref = exp0vref;
+            } else if (isFloat(exp0vref)) { // MINUS
+                expvref = LLVMBuildFNeg(builder, exp0vref, genVReg());
             } else { // MINUS
-                expvref = LLVMBuildSub(builder, LLVMConstInt(i32Type, 0, 0), exp0vref, genVReg());
+                expvref = LLVMBuildNSWSub(builder, LLVMConstInt(i32Type, 0, 0), exp0vref, genVReg());
             }
             return expvref;
         } else if (ctx.exp().size() == 2) { // exp -> exp0 OP exp1
@@ -774,16 +1888,20 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
              */
             var exp0vref = visit(ctx.exp(0));
             var exp1vref = visit(ctx.exp(1));
+            if (isFloat(exp0vref) || isFloat(exp1vref)) {
+                return buildFloatArith(ctx, buildConvert(exp0vref, floatType), buildConvert(exp1vref, floatType));
+            }
+            // signed overflow is undefined as in C, hence nsw
             if (ctx.MUL() != null) {
-                return LLVMBuildMul(builder, exp0vref, exp1vref, genVReg());
+                return LLVMBuildNSWMul(builder, exp0vref, exp1vref, genVReg());
             } else if (ctx.DIV() != null) {
                 return LLVMBuildSDiv(builder, exp0vref, exp1vref, genVReg());
             } else if (ctx.MOD() != null) {
                 return LLVMBuildSRem(builder, exp0vref, exp1vref, genVReg());
             } else if (ctx.PLUS() != null) {
-                return LLVMBuildAdd(builder, exp0vref, exp1vref, genVReg());
+                return LLVMBuildNSWAdd(builder, exp0vref, exp1vref, genVReg());
             } else if (ctx.MINUS() != null) {
-                return LLVMBuildSub(builder, exp0vref, exp1vref, genVReg());
+                return LLVMBuildNSWSub(builder, exp0vref, exp1vref, genVReg());
             }
             return null;
         } else if (ctx.lVal() != null) { // epx -> lVal
@@ -791,25 +1909,52 @@ public class LLVMIRGenVisitor extends SysYParserBaseVisitor<LLVMValueRef> {
              * visit lVal
              * this.val = gencode(load lval).ref
              */
-            var lValMem = visit(ctx.lVal());
-            return LLVMBuildLoad(builder, lValMem, genVReg());
+            return buildReadLVal(ctx.lVal());
         } else if (ctx.IDENT() != null) { // exp -> IDENT ( funcRParams? )
+            // a pure function with constant args is run here
+            var folded = ConstExp.eval(ctx, this::lookupConst, constInterpreter::call);
+            if (folded != null) {
+                return LLVMConstInt(i32Type, folded, 1);
+            }
             var funcId = ctx.IDENT().getText();
+            if (currentScope.getName().equals(GLOBAL_NAME)) { // there is no function to put the call in
+                throw new NotConstantError("call to " + funcId + " in a global initializer", ctx.getStart().getLine());
+            }
+            var inlined = callGraph.inlineAt(curFuncNode.getName(), funcId);
+            if (inlined != null) {
+                return buildInlinedCall(inlined, ctx.funcRParams());
+            }
             var funcSymbol = currentScope.getSymbolGlobal(funcId);
             var funcRetType = funcSymbol.getType();
             var funcRef = funcSymbol.getValueMem();
+            var calleeNode = callGraph.getNode(funcId);
+            var spec = calleeNode != null ? getSpecialization(calleeNode, ctx.funcRParams()) : null;
+            if (spec != null) {
+                funcRetType = LLVMGlobalGetValueType(spec.func);
+                funcRef = spec.func;
+            }
+            // a call returning void must not be named
+            var callName = LLVMGetTypeKind(LLVMGetReturnType(funcRetType)) == LLVMVoidTypeKind ? "" : genVReg(funcId);
+            LLVMValueRef call;
             if (ctx.funcRParams() == null) {
-                return LLVMBuildCall2(builder, funcRetType, funcRef, null, 0, genVReg(funcId));
+                call = LLVMBuildCall2(builder, funcRetType, funcRef, null, 0, callName);
             } else {
                 var params = ctx.funcRParams().param();
                 PointerPointer<Pointer> pRefs = new PointerPointer<>(params.size());
+                int n = 0;
                 for (int i = 0; i < params.size(); i++) {
+                    if (spec != null && spec.args[i] != null) {
+                        continue; // known in the clone, constant args have no side effects
+                    }
                     var exp = params.get(i).exp();
                     var v = visit(exp);
-                    pRefs.put(i, v);
+                    pRefs.put(n, buildConvert(v, LLVMTypeOf(LLVMGetParam(funcRef, n))));
+                    n++;
                 }
-                return LLVMBuildCall2(builder, funcRetType, funcRef, pRefs, params.size(), genVReg(funcId));
+                call = LLVMBuildCall2(builder, funcRetType, funcRef, pRefs, n, callName);
             }
+            forgetGlobalValues(); // the callee may store to them
+            return call;
         } else {
             return visitChildren(ctx);
         }
@@ -6,20 +6,20 @@ import org.antlr.v4.runtime.atn.ATNConfigSet;
 import org.antlr.v4.runtime.dfa.DFA;
 
 public class LexerErrorListener extends BaseErrorListener {
-    private boolean haserr = false;
+    private Diagnostics diagnostics;
 
-    public LexerErrorListener() {
+    public LexerErrorListener(Diagnostics diagnostics) {
+        this.diagnostics = diagnostics;
     }
 
     public boolean hasErr() {
-        return haserr;
+        return diagnostics.hasErrors(Diagnostics.Phase.LEXER);
     }
 
     @Override
     public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
             String msg, RecognitionException e) {
-        System.err.println("Error type A at Line " + line + ": " + msg);
-        haserr = true;
+        diagnostics.report(Diagnostics.Phase.LEXER, "A", line, msg);
     }
 
     @Override
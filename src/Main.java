@@ -5,6 +5,9 @@ import org.antlr.v4.runtime.*;
 import java.util.List;
 
 public class Main {
+    private static CompilerOptions options;
+    private static Diagnostics diagnostics;
+
     private static void printSysYTokenInformation(Token t) {
         var typeName = SysYLexer.ruleNames[t.getType() - 1];
         if (typeName.matches("^(WS|MULTILINE_COMMENT|LINE_COMMENT)$")) {
@@ -17,11 +20,12 @@ public class Main {
     private static boolean task4_2(String source) throws IOException {
         System.out.println("Task 4.2 lexer begin::");
         SysYLexer sysYLexer = new SysYLexer(CharStreams.fromFileName(source));
-        LexerErrorListener myErrorListener = new LexerErrorListener();
+        LexerErrorListener myErrorListener = new LexerErrorListener(diagnostics);
         sysYLexer.removeErrorListeners();
         sysYLexer.addErrorListener(myErrorListener);
 
         List<? extends Token> myTokens = sysYLexer.getAllTokens();
+        diagnostics.flush();
 
         if (myErrorListener.hasErr()) {
             System.out.println("Task 4.2 succ caught lexer err end::");
@@ -38,11 +42,12 @@ public class Main {
         System.out.println("Task 4.3 parser begin::");
         SysYLexer sysYLexer = new SysYLexer(CharStreams.fromFileName(source));
         SysYParser sysYParser = new SysYParser(new CommonTokenStream(sysYLexer));
-        ParserErrorListener myErrorListener = new ParserErrorListener();
+        ParserErrorListener myErrorListener = new ParserErrorListener(diagnostics);
         sysYParser.removeErrorListeners();
         sysYParser.addErrorListener(myErrorListener);
 
         SysYParser.ProgramContext tree = sysYParser.program();
+        diagnostics.flush();
 
         if (myErrorListener.hasErr()) {
             System.out.println("Task 4.3 succ caught parser err end::");
@@ -60,8 +65,9 @@ public class Main {
         SysYLexer sysYLexer = new SysYLexer(CharStreams.fromFileName(source));
         SysYParser sysYParser = new SysYParser(new CommonTokenStream(sysYLexer));
         SysYParser.ProgramContext tree = sysYParser.program();
-        ErrorHandleVisitor visitor = new ErrorHandleVisitor();
+        ErrorHandleVisitor visitor = new ErrorHandleVisitor(diagnostics);
         visitor.visit(tree);
+        diagnostics.flush();
         if (visitor.hasError()) {
             System.out.println("Task 4.4 gramma check end::");
             return false;
@@ -76,20 +82,78 @@ public class Main {
         SysYLexer sysYLexer = new SysYLexer(CharStreams.fromFileName(source));
         SysYParser sysYParser = new SysYParser(new CommonTokenStream(sysYLexer));
         SysYParser.ProgramContext tree = sysYParser.program();
-        var visitor = new LLVMIRGenVisitor(target);
-        visitor.visit(tree);
+        try {
+            if (options.midir && midirgen(tree, target)) {
+                return;
+            }
+            if (options.jobs > 1 || options.cacheDir != null) {
+                parallelgen(tree, target);
+                return;
+            }
+            var visitor = new LLVMIRGenVisitor(target, options);
+            visitor.visit(tree);
+        } catch (LLVMIRGenVisitor.NotConstantError e) {
+            diagnostics.report(Diagnostics.Phase.CHECKER, ErrorHandleVisitor.NOT_CONSTANT, e.getLine(), e.getMessage());
+            diagnostics.flush();
+        }
+    }
+
+    private static void parallelgen(SysYParser.ProgramContext tree, String target) {
+        var codegen = new ParallelCodegen(tree, options);
+        var module = codegen.run();
+        if (options.inlineReport) {
+            codegen.getCallGraph().printReport(System.err);
+        }
+        if (codegen.getCache() != null) {
+            System.err.println(codegen.getCache().getSummary());
+        }
+        var backend = new LLVMBackend(options);
+        backend.emit(module, target);
+        backend.dispose();
+    }
+
+    // false if the program uses something MidIR does not cover yet
+    private static boolean midirgen(SysYParser.ProgramContext tree, String target) {
+        var irBuilder = new MidIRBuilder(options);
+        try {
+            irBuilder.visit(tree);
+        } catch (MidIRBuilder.Unsupported e) {
+            System.err.println(e.getMessage() + ", using direct generation");
+            return false;
+        }
+        if (options.inlineReport) {
+            irBuilder.getCallGraph().printReport(System.err);
+        }
+        var module = irBuilder.getModule();
+        MidIRPasses.build(options.midirPasses, options.timePasses).run(module);
+        if (options.dumpMidir) {
+            System.err.print(MidIRPrinter.print(module));
+        }
+        var llvmModule = new MidIREmitter().emit(module);
+        var backend = new LLVMBackend(options);
+        backend.emit(llvmModule, target);
+        backend.dispose();
+        return true;
     }
 
     public static void main(String[] args) throws IOException {
-        if (args.length < 2) {
-            System.err.println("input path is required");
+        try {
+            options = CompilerOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
         }
-        String source = args[0];
-        if (task4_2(source) && task4_3(source)) {
-            if (task4_4(source)) {
-                llvmgen(args[0], args[1]);
+        diagnostics = new Diagnostics(options.maxErrors);
+        String source = options.source;
+        try {
+            if (task4_2(source) && task4_3(source)) {
+                if (task4_4(source)) {
+                    llvmgen(options.source, options.target);
+                }
             }
+        } catch (Diagnostics.LimitReachedException e) {
+            diagnostics.flush();
+            System.err.println(e.getMessage());
         }
-
     }
 }
\ No newline at end of file
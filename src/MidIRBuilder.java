@@ -0,0 +1,783 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
+
+/**
+ * Builds MidIR from a checked tree. Locals are put in SSA form on the fly
+ * with the same algorithm as SSABuilder (Braun et al.), blocks are sealed
+ * once all their predecessors are known.
+ *
+ * The builder does no folding of its own, that is left to the passes.
+ */
+public class MidIRBuilder extends SysYParserBaseVisitor<IRValue> {
+    static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String what) {
+            super(what + " is not supported by the mid level ir");
+        }
+    }
+
+    // a local scalar, key of the ssa tables
+    static class Var {
+        private final String id;
+
+        Var(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    private final IRModule module = new IRModule();
+    private IRFunction curFunc;
+    private IRBlock cur; // null while unreachable
+
+    // id -> IRGlobal, IRFunction, Var or IRConst (consts are folded on declaration)
+    private Stack<Map<String, Object>> scopes = new Stack<>();
+
+    private final Map<IRBlock, Map<Var, IRValue>> currentDef = new HashMap<>();
+    private final Map<IRBlock, Map<Var, IRInst>> incompletePhis = new HashMap<>();
+    private final Map<IRBlock, Boolean> sealed = new HashMap<>();
+    private final Map<IRInst, Var> phiVar = new HashMap<>();
+    private final Map<IRValue, IRValue> replaced = new HashMap<>();
+
+    private final ParseTreeProperty<IRBlock> propTrueBlock = new ParseTreeProperty<>();
+    private final ParseTreeProperty<IRBlock> propFalseBlock = new ParseTreeProperty<>();
+    private final Stack<IRBlock> whileBeginStack = new Stack<>();
+    private final Stack<IRBlock> whileExitStack = new Stack<>();
+
+    private final CompilerOptions options;
+    private CallGraph callGraph;
+    private ConstInterpreter constInterpreter;
+
+    // a call being expanded in place: returns write result and jump to exit
+    static class InlineFrame {
+        private final IRBlock exit;
+        private final Var result; // null for void functions
+
+        InlineFrame(IRBlock exit, Var result) {
+            this.exit = exit;
+            this.result = result;
+        }
+    }
+
+    private final Stack<InlineFrame> inlineStack = new Stack<>();
+
+    // self tail calls jump here with the params rewritten, null if there are none
+    private IRBlock tailCallBlock;
+    private final List<Var> curParams = new ArrayList<>();
+
+    public MidIRBuilder(CompilerOptions options) {
+        this.options = options;
+        scopes.push(new HashMap<>()); // global
+    }
+
+    public IRModule getModule() {
+        return module;
+    }
+
+    public CallGraph getCallGraph() {
+        return callGraph;
+    }
+
+    private Object lookup(String id) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            var sym = scopes.get(i).get(id);
+            if (sym != null) {
+                return sym;
+            }
+        }
+        throw new IllegalStateException("unknown symbol " + id);
+    }
+
+    private boolean isGlobalScope() {
+        return scopes.size() == 1;
+    }
+
+    // ---- ssa ----
+
+    private IRValue resolve(IRValue v) {
+        while (replaced.containsKey(v)) {
+            v = replaced.get(v);
+        }
+        return v;
+    }
+
+    private void writeVariable(Var var, IRBlock block, IRValue value) {
+        currentDef.computeIfAbsent(block, b -> new HashMap<>()).put(var, value);
+    }
+
+    private IRValue readVariable(Var var, IRBlock block) {
+        var defs = currentDef.get(block);
+        if (defs != null && defs.containsKey(var)) {
+            var v = resolve(defs.get(var));
+            defs.put(var, v);
+            return v;
+        }
+        IRValue val;
+        if (!sealed.getOrDefault(block, false)) {
+            var phi = newPhi(var, block);
+            incompletePhis.computeIfAbsent(block, b -> new HashMap<>()).put(var, phi);
+            val = phi;
+        } else if (block.getPreds().isEmpty()) {
+            val = IRConst.i32(0); // read before any write
+        } else if (block.getPreds().size() == 1) {
+            val = readVariable(var, block.getPreds().get(0));
+        } else {
+            var phi = newPhi(var, block);
+            writeVariable(var, block, phi);
+            val = addPhiOperands(var, phi);
+        }
+        writeVariable(var, block, val);
+        return val;
+    }
+
+    private IRInst newPhi(Var var, IRBlock block) {
+        var phi = new IRInst(IROp.PHI, IRType.I32);
+        block.insert(0, phi);
+        phiVar.put(phi, var);
+        return phi;
+    }
+
+    private IRValue addPhiOperands(Var var, IRInst phi) {
+        for (var pred : phi.getParent().getPreds()) {
+            phi.addIncoming(readVariable(var, pred), pred);
+        }
+        return tryRemoveTrivialPhi(phi);
+    }
+
+    private IRValue tryRemoveTrivialPhi(IRInst phi) {
+        IRValue same = null;
+        for (var op : phi.getOperands()) {
+            if (op == same || op == phi) {
+                continue;
+            }
+            if (same != null) {
+                return phi;
+            }
+            same = op;
+        }
+        if (same == null) {
+            same = IRConst.i32(0);
+        }
+        var users = new ArrayList<IRInst>();
+        for (var user : phi.getUsers()) {
+            if (user != phi && phiVar.containsKey(user) && !users.contains(user)) {
+                users.add(user);
+            }
+        }
+        phi.replaceAllUsesWith(same);
+        replaced.put(phi, same);
+        phiVar.remove(phi);
+        phi.erase();
+        for (var user : users) {
+            if (phiVar.containsKey(user)) {
+                tryRemoveTrivialPhi(user);
+            }
+        }
+        return resolve(same);
+    }
+
+    private void seal(IRBlock block) {
+        if (sealed.getOrDefault(block, false)) {
+            return;
+        }
+        sealed.put(block, true);
+        var phis = incompletePhis.remove(block);
+        if (phis != null) {
+            for (var entry : phis.entrySet()) {
+                addPhiOperands(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // ---- cfg ----
+
+    private IRInst emit(IROp op, IRType type, IRValue... operands) {
+        var inst = new IRInst(op, type);
+        for (var v : operands) {
+            inst.addOperand(v);
+        }
+        cur.append(inst);
+        return inst;
+    }
+
+    private void br(IRBlock target) {
+        if (cur == null) {
+            return;
+        }
+        emit(IROp.BR, IRType.VOID).getBlocks().add(target);
+        target.getPreds().add(cur);
+        cur = null;
+    }
+
+    private void condBr(IRValue cond, IRBlock t, IRBlock f) {
+        if (cur == null) {
+            return;
+        }
+        if (t == f) {
+            br(t);
+            return;
+        }
+        var inst = emit(IROp.CONDBR, IRType.VOID, cond);
+        inst.getBlocks().add(t);
+        inst.getBlocks().add(f);
+        t.getPreds().add(cur);
+        f.getPreds().add(cur);
+        cur = null;
+    }
+
+    // continue at block once every jump to it is emitted
+    private void position(IRBlock block) {
+        br(block);
+        seal(block);
+        cur = block.getPreds().isEmpty() ? null : block;
+    }
+
+    // continue at a loop header, seal it after the back edges
+    private void positionUnsealed(IRBlock block) {
+        br(block);
+        cur = block;
+    }
+
+    private void visitReachable(ParseTree ctx) {
+        if (cur != null) {
+            visit(ctx);
+        }
+    }
+
+    // ---- constant expressions ----
+
+    private int evalConst(SysYParser.ExpContext ctx) {
+        if (ctx.L_PAREN() != null && ctx.IDENT() == null) {
+            return evalConst(ctx.exp(0));
+        } else if (ctx.number() != null) {
+            if (ctx.number().FLOAT_CONST() != null) {
+                throw new Unsupported("float");
+            }
+            return Integer.decode(ctx.number().getText());
+        } else if (ctx.unaryOp() != null) {
+            int v = evalConst(ctx.exp(0));
+            if (ctx.unaryOp().NOT() != null) {
+                return v == 0 ? 1 : 0;
+            }
+            return ctx.unaryOp().MINUS() != null ? -v : v;
+        } else if (ctx.lVal() != null) {
+            var sym = lookup(ctx.lVal().IDENT().getText());
+            if (sym instanceof IRConst) {
+                return ((IRConst) sym).getValue();
+            }
+            if (sym instanceof IRGlobal) {
+                return ((IRGlobal) sym).getInit(); // globals are initialized in order
+            }
+        } else if (ctx.IDENT() != null) {
+            var v = ConstExp.eval(ctx, this::lookupConst, constInterpreter::call);
+            if (v != null) {
+                return v;
+            }
+        } else if (ctx.exp().size() == 2) {
+            int a = evalConst(ctx.exp(0));
+            int b = evalConst(ctx.exp(1));
+            if (ctx.MUL() != null) {
+                return a * b;
+            } else if (ctx.DIV() != null) {
+                return a / b;
+            } else if (ctx.MOD() != null) {
+                return a % b;
+            } else if (ctx.PLUS() != null) {
+                return a + b;
+            } else {
+                return a - b;
+            }
+        }
+        throw new Unsupported("non constant global initializer");
+    }
+
+    // ---- tree ----
+
+    @Override
+    public IRValue visitProgram(SysYParser.ProgramContext ctx) {
+        callGraph = new CallGraph(ctx, options.inlineThreshold);
+        constInterpreter = new ConstInterpreter(callGraph, id -> {
+            var sym = scopes.get(0).get(id);
+            return sym instanceof IRConst ? ((IRConst) sym).getValue() : null;
+        }, options.constEvalSteps);
+        return visitChildren(ctx);
+    }
+
+    // the callee's body in place of the call, seeing only its params and the globals
+    private IRValue buildInlinedCall(CallGraph.Node callee, SysYParser.FuncRParamsContext args) {
+        var def = callee.getDef();
+        var argValues = new ArrayList<IRValue>();
+        if (args != null) {
+            for (var param : args.param()) {
+                argValues.add(visit(param.exp()));
+            }
+        }
+        var params = new HashMap<String, Object>();
+        if (def.funcFParams() != null) {
+            var funcFParams = def.funcFParams().funcFParam();
+            for (int i = 0; i < funcFParams.size(); i++) {
+                var var = new Var(funcFParams.get(i).IDENT().getText());
+                writeVariable(var, cur, argValues.get(i));
+                params.put(var.getId(), var);
+            }
+        }
+        Var result = null;
+        if (def.funcType().VOID() == null) {
+            result = new Var(callee.getName() + "_ret");
+            writeVariable(result, cur, IRConst.i32(0));
+        }
+        var exit = curFunc.newBlock(callee.getName() + "_ret");
+
+        var callerScopes = scopes;
+        scopes = new Stack<>();
+        scopes.push(callerScopes.get(0));
+        scopes.push(params);
+        inlineStack.push(new InlineFrame(exit, result));
+        visit(def.block());
+        inlineStack.pop();
+        scopes = callerScopes;
+
+        br(exit); // falling off the end
+        position(exit);
+        if (cur == null) { // the callee never returns, the rest of the caller is dead
+            cur = curFunc.newBlock("dead");
+            seal(cur);
+        }
+        return result != null ? readVariable(result, cur) : null;
+    }
+
+    @Override
+    public IRValue visitFuncDef(SysYParser.FuncDefContext ctx) {
+        if (ctx.funcType().FLOAT() != null) {
+            throw new Unsupported("float");
+        }
+        var retType = ctx.funcType().VOID() != null ? IRType.VOID : IRType.I32;
+        String funcName = ctx.IDENT().getText();
+        curFunc = new IRFunction(funcName, retType);
+        module.getFunctions().add(curFunc);
+        scopes.peek().put(funcName, curFunc);
+        var node = callGraph.getNode(funcName);
+        curFunc.setPure(node.isSpeculatable());
+        curFunc.setAttributes(callGraph.getAttributes(node, options.memoSize > 0));
+        if (options.memoSize > 0 && node.isMemoizable()) {
+            throw new Unsupported("memoized function " + funcName);
+        }
+
+        cur = curFunc.newBlock(funcName);
+        seal(cur);
+        var params = new HashMap<String, Object>();
+        curParams.clear();
+        if (ctx.funcFParams() != null) {
+            var funcFParams = ctx.funcFParams().funcFParam();
+            for (int i = 0; i < funcFParams.size(); i++) {
+                var param = funcFParams.get(i);
+                if (param.bType().FLOAT() != null || param.L_BRACKT().size() > 0) {
+                    throw new Unsupported("float or array parameter");
+                }
+                String id = param.IDENT().getText();
+                var p = new IRParam(IRType.I32, id, i);
+                curFunc.getParams().add(p);
+                var var = new Var(id);
+                writeVariable(var, cur, p);
+                params.put(id, var);
+                curParams.add(var);
+            }
+        }
+        // the body becomes a loop when it returns calls to itself
+        tailCallBlock = null;
+        if (callGraph.getNode(funcName).hasSelfTailCall()) {
+            tailCallBlock = curFunc.newBlock(funcName + "_tail");
+            positionUnsealed(tailCallBlock);
+        }
+        scopes.push(params);
+        visit(ctx.block());
+        scopes.pop();
+
+        if (cur != null) { // falling off the end
+            if (retType == IRType.VOID) {
+                emit(IROp.RET, IRType.VOID);
+            } else {
+                emit(IROp.RET, IRType.VOID, IRConst.i32(0));
+            }
+            cur = null;
+        }
+        if (tailCallBlock != null) {
+            seal(tailCallBlock);
+        }
+        currentDef.clear();
+        incompletePhis.clear();
+        phiVar.clear();
+        replaced.clear();
+        return null;
+    }
+
+    private boolean isSelfTailCall(SysYParser.ExpContext call) {
+        return call != null && tailCallBlock != null && call.IDENT().getText().equals(curFunc.getName());
+    }
+
+    // return f(args) inside f: rebind the params and start over
+    private void buildSelfTailCall(SysYParser.FuncRParamsContext args) {
+        var argValues = new ArrayList<IRValue>();
+        if (args != null) {
+            for (var param : args.param()) {
+                argValues.add(visit(param.exp()));
+            }
+        }
+        for (int i = 0; i < argValues.size(); i++) {
+            writeVariable(curParams.get(i), cur, argValues.get(i));
+        }
+        br(tailCallBlock);
+    }
+
+    @Override
+    public IRValue visitBlock(SysYParser.BlockContext ctx) {
+        scopes.push(new HashMap<>());
+        for (var item : ctx.blockItem()) {
+            if (cur == null) {
+                break;
+            }
+            visit(item);
+        }
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public IRValue visitConstDecl(SysYParser.ConstDeclContext ctx) {
+        if (ctx.bType().INT() == null) {
+            throw new Unsupported("float");
+        }
+        for (var constDef : ctx.constDef()) {
+            if (!constDef.constExp().isEmpty()) {
+                throw new Unsupported("array");
+            }
+            var v = evalConst(constDef.constInitVal().constExp().exp());
+            scopes.peek().put(constDef.IDENT().getText(), IRConst.i32(v));
+        }
+        return null;
+    }
+
+    @Override
+    public IRValue visitVarDecl(SysYParser.VarDeclContext ctx) {
+        if (ctx.bType().INT() == null) {
+            throw new Unsupported("float");
+        }
+        for (var varDef : ctx.varDef()) {
+            if (!varDef.constExp().isEmpty()) {
+                throw new Unsupported("array");
+            }
+            String id = varDef.IDENT().getText();
+            var init = varDef.initVal();
+            if (isGlobalScope()) {
+                var g = new IRGlobal(id, init != null ? evalConst(init.exp()) : 0, false);
+                module.getGlobals().add(g);
+                scopes.peek().put(id, g);
+            } else {
+                var value = init != null ? visit(init.exp()) : IRConst.i32(0);
+                var var = new Var(id);
+                writeVariable(var, cur, value);
+                scopes.peek().put(id, var);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public IRValue visitStmt(SysYParser.StmtContext ctx) {
+        if (ctx.RETURN() != null && !inlineStack.isEmpty()) { // return of an inlined call
+            var frame = inlineStack.peek();
+            if (ctx.exp() != null) {
+                writeVariable(frame.result, cur, visit(ctx.exp()));
+            }
+            br(frame.exit);
+        } else if (ctx.RETURN() != null && isSelfTailCall(CallGraph.getTailCall(ctx))) {
+            buildSelfTailCall(CallGraph.getTailCall(ctx).funcRParams());
+        } else if (ctx.RETURN() != null) {
+            if (ctx.exp() != null) {
+                emit(IROp.RET, IRType.VOID, visit(ctx.exp()));
+            } else {
+                emit(IROp.RET, IRType.VOID);
+            }
+            cur = null;
+        } else if (ctx.ASSIGN() != null) {
+            var val = visit(ctx.exp());
+            var sym = lookup(ctx.lVal().IDENT().getText());
+            if (sym instanceof Var) {
+                writeVariable((Var) sym, cur, val);
+            } else {
+                emit(IROp.STORE, IRType.VOID, val, (IRGlobal) sym);
+            }
+        } else if (ctx.exp() != null) {
+            visit(ctx.exp());
+        } else if (ctx.BREAK() != null) {
+            br(whileExitStack.peek());
+        } else if (ctx.CONTINUE() != null) {
+            br(whileBeginStack.peek());
+        } else if (ctx.IF() != null) {
+            var trueBlock = curFunc.newBlock("ifbody");
+            var nextBlock = curFunc.newBlock("ifnext");
+            var falseBlock = ctx.ELSE() != null ? curFunc.newBlock("elsebody") : nextBlock;
+            propTrueBlock.put(ctx.cond(), trueBlock);
+            propFalseBlock.put(ctx.cond(), falseBlock);
+            visit(ctx.cond());
+
+            position(trueBlock);
+            visitReachable(ctx.stmt(0));
+            if (ctx.ELSE() != null) {
+                br(nextBlock);
+                position(falseBlock);
+                visitReachable(ctx.stmt(1));
+            }
+            position(nextBlock);
+        } else if (ctx.WHILE() != null) {
+            if (!buildUnrolledWhile(ctx)) {
+                buildWhile(ctx);
+            }
+        } else if (ctx.block() != null) {
+            visit(ctx.block());
+        }
+        return null;
+    }
+
+    private void buildWhile(SysYParser.StmtContext ctx) {
+        if (options.invertLoops) {
+            buildInvertedWhile(ctx);
+            return;
+        }
+        var beginBlock = curFunc.newBlock("whilebegin");
+        var bodyBlock = curFunc.newBlock("whilebody");
+        var exitBlock = curFunc.newBlock("whileexit");
+        propTrueBlock.put(ctx.cond(), bodyBlock);
+        propFalseBlock.put(ctx.cond(), exitBlock);
+
+        positionUnsealed(beginBlock);
+        visit(ctx.cond());
+
+        whileBeginStack.push(beginBlock);
+        whileExitStack.push(exitBlock);
+        position(bodyBlock);
+        visitReachable(ctx.stmt(0));
+        br(beginBlock);
+        seal(beginBlock);
+        whileBeginStack.pop();
+        whileExitStack.pop();
+
+        position(exitBlock);
+    }
+
+    // guard, then the body with the condition at its end as the only back edge
+    private void buildInvertedWhile(SysYParser.StmtContext ctx) {
+        var bodyBlock = curFunc.newBlock("whilebody");
+        var latchBlock = curFunc.newBlock("whilelatch");
+        var exitBlock = curFunc.newBlock("whileexit");
+        propTrueBlock.put(ctx.cond(), bodyBlock);
+        propFalseBlock.put(ctx.cond(), exitBlock);
+
+        visitReachable(ctx.cond());
+
+        whileBeginStack.push(latchBlock);
+        whileExitStack.push(exitBlock);
+        if (!bodyBlock.getPreds().isEmpty()) {
+            cur = bodyBlock;
+            visitReachable(ctx.stmt(0));
+            position(latchBlock);
+            visitReachable(ctx.cond());
+        }
+        seal(bodyBlock);
+        whileBeginStack.pop();
+        whileExitStack.pop();
+
+        position(exitBlock);
+    }
+
+    private Integer lookupConst(String id) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            var sym = scopes.get(i).get(id);
+            if (sym != null) {
+                return sym instanceof IRConst ? ((IRConst) sym).getValue() : null;
+            }
+        }
+        return null;
+    }
+
+    // same unrolling as LLVMIRGenVisitor
+    private boolean buildUnrolledWhile(SysYParser.StmtContext ctx) {
+        if (options.unrollLimit <= 0) {
+            return false;
+        }
+        var counted = CountedLoop.match(ctx, this::lookupConst);
+        if (counted == null || !(lookup(counted.getVar()) instanceof Var)) {
+            return false;
+        }
+        var var = (Var) lookup(counted.getVar());
+        long trips = counted.getTripCount();
+        long size = counted.getBodySize();
+        if (trips * size <= options.unrollLimit) {
+            for (long k = 0; k < trips; k++) {
+                visitReachable(counted.getBody());
+            }
+            return true;
+        }
+        int factor = options.unrollFactor;
+        if (factor <= 1 || trips < factor || factor * size > options.unrollLimit) {
+            return false;
+        }
+        var beginBlock = curFunc.newBlock("unrollbegin");
+        var bodyBlock = curFunc.newBlock("unrollbody");
+        var exitBlock = curFunc.newBlock("unrollexit");
+        positionUnsealed(beginBlock);
+        var limit = IRConst.i32((int) ((long) counted.getEnd() - factor + 1));
+        condBr(emitCmp(IRCmp.SLT, readVariable(var, cur), limit), bodyBlock, exitBlock);
+
+        whileBeginStack.push(beginBlock);
+        whileExitStack.push(exitBlock);
+        position(bodyBlock);
+        for (int k = 0; k < factor; k++) {
+            visitReachable(counted.getBody());
+        }
+        br(beginBlock);
+        seal(beginBlock);
+        whileBeginStack.pop();
+        whileExitStack.pop();
+
+        position(exitBlock);
+        if (trips % factor != 0 && cur != null) {
+            buildWhile(ctx); // remainder
+        }
+        return true;
+    }
+
+    @Override
+    public IRValue visitCond(SysYParser.CondContext ctx) {
+        var t = propTrueBlock.get(ctx);
+        var f = propFalseBlock.get(ctx);
+        if (ctx.AND() != null || ctx.OR() != null) {
+            var mid = curFunc.newBlock(ctx.AND() != null ? "true" : "false");
+            propTrueBlock.put(ctx.cond(0), ctx.AND() != null ? mid : t);
+            propFalseBlock.put(ctx.cond(0), ctx.AND() != null ? f : mid);
+            propTrueBlock.put(ctx.cond(1), t);
+            propFalseBlock.put(ctx.cond(1), f);
+            visit(ctx.cond(0));
+            position(mid);
+            visitReachable(ctx.cond(1));
+        } else if (ctx.exp() != null) {
+            condBr(emitCmp(IRCmp.NE, visit(ctx.exp()), IRConst.i32(0)), t, f);
+        } else {
+            condBr(buildRelCmp(ctx), t, f);
+        }
+        return null;
+    }
+
+    private IRInst emitCmp(IRCmp cmp, IRValue a, IRValue b) {
+        var inst = emit(IROp.ICMP, IRType.I1, a, b);
+        inst.setCmp(cmp);
+        return inst;
+    }
+
+    private IRValue buildRelCmp(SysYParser.CondContext ctx) {
+        var a = buildCondOperand(ctx.cond(0));
+        var b = buildCondOperand(ctx.cond(1));
+        IRCmp cmp;
+        if (ctx.LT() != null) {
+            cmp = IRCmp.SLT;
+        } else if (ctx.GT() != null) {
+            cmp = IRCmp.SGT;
+        } else if (ctx.LE() != null) {
+            cmp = IRCmp.SLE;
+        } else if (ctx.GE() != null) {
+            cmp = IRCmp.SGE;
+        } else if (ctx.EQ() != null) {
+            cmp = IRCmp.EQ;
+        } else {
+            cmp = IRCmp.NE;
+        }
+        return emitCmp(cmp, a, b);
+    }
+
+    private IRValue buildCondOperand(SysYParser.CondContext ctx) {
+        if (ctx.exp() != null) {
+            return visit(ctx.exp());
+        }
+        if (ctx.AND() != null || ctx.OR() != null) {
+            throw new Unsupported("logical operator as comparison operand");
+        }
+        return emit(IROp.ZEXT, IRType.I32, buildRelCmp(ctx));
+    }
+
+    @Override
+    public IRValue visitExp(SysYParser.ExpContext ctx) {
+        if (ctx.L_PAREN() != null && ctx.IDENT() == null) {
+            return visit(ctx.exp(0));
+        } else if (ctx.number() != null) {
+            if (ctx.number().FLOAT_CONST() != null) {
+                throw new Unsupported("float");
+            }
+            return IRConst.i32(Integer.decode(ctx.number().getText()));
+        } else if (ctx.unaryOp() != null) {
+            var v = visit(ctx.exp(0));
+            if (ctx.unaryOp().NOT() != null) {
+                return emit(IROp.ZEXT, IRType.I32, emitCmp(IRCmp.EQ, v, IRConst.i32(0)));
+            } else if (ctx.unaryOp().MINUS() != null) {
+                return emit(IROp.SUB, IRType.I32, IRConst.i32(0), v);
+            }
+            return v;
+        } else if (ctx.exp().size() == 2) {
+            var a = visit(ctx.exp(0));
+            var b = visit(ctx.exp(1));
+            IROp op;
+            if (ctx.MUL() != null) {
+                op = IROp.MUL;
+            } else if (ctx.DIV() != null) {
+                op = IROp.SDIV;
+            } else if (ctx.MOD() != null) {
+                op = IROp.SREM;
+            } else if (ctx.PLUS() != null) {
+                op = IROp.ADD;
+            } else {
+                op = IROp.SUB;
+            }
+            return emit(op, IRType.I32, a, b);
+        } else if (ctx.lVal() != null) {
+            if (!ctx.lVal().exp().isEmpty()) {
+                throw new Unsupported("array");
+            }
+            var sym = lookup(ctx.lVal().IDENT().getText());
+            if (sym instanceof IRConst) {
+                return (IRConst) sym;
+            } else if (sym instanceof Var) {
+                return readVariable((Var) sym, cur);
+            }
+            return emit(IROp.LOAD, IRType.I32, (IRGlobal) sym);
+        } else if (ctx.IDENT() != null) {
+            var folded = ConstExp.eval(ctx, this::lookupConst, constInterpreter::call);
+            if (folded != null) {
+                return IRConst.i32(folded);
+            }
+            var inlined = callGraph.inlineAt(curFunc.getName(), ctx.IDENT().getText());
+            if (inlined != null) {
+                return buildInlinedCall(inlined, ctx.funcRParams());
+            }
+            var callee = (IRFunction) lookup(ctx.IDENT().getText());
+            var call = new IRInst(IROp.CALL, callee.getRetType());
+            call.setCallee(callee);
+            if (ctx.funcRParams() != null) {
+                for (var param : ctx.funcRParams().param()) {
+                    call.addOperand(visit(param.exp()));
+                }
+            }
+            cur.append(call);
+            return call;
+        }
+        return visitChildren(ctx);
+    }
+}
@@ -0,0 +1,200 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bytedeco.javacpp.*;
+import org.bytedeco.llvm.LLVM.*;
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * Lowers MidIR to an LLVM module. Blocks are emitted in reverse post order
+ * so every operand except phi inputs exists before its use; phis are
+ * created empty and filled in once the whole function is emitted.
+ */
+public class MidIREmitter {
+    private final LLVMContextRef context; // everything below is made in it
+    private final LLVMModuleRef module;
+    private final LLVMBuilderRef builder;
+    private final LLVMTypeRef i32Type;
+    private final LLVMTypeRef i1Type;
+    private final LLVMTypeRef voidType;
+
+    private final Map<IRValue, LLVMValueRef> values = new HashMap<>();
+    private final Map<IRBlock, LLVMBasicBlockRef> blocks = new HashMap<>();
+    private final Map<IRFunction, LLVMValueRef> functions = new HashMap<>();
+    private final Map<IRFunction, LLVMTypeRef> functionTypes = new HashMap<>();
+
+    public MidIREmitter() {
+        this(LLVMGetGlobalContext());
+    }
+
+    // into a module of context, which may be one of ParallelCodegen's
+    public MidIREmitter(LLVMContextRef context) {
+        this.context = context;
+        module = LLVMModuleCreateWithNameInContext("module", context);
+        builder = LLVMCreateBuilderInContext(context);
+        i32Type = LLVMInt32TypeInContext(context);
+        i1Type = LLVMInt1TypeInContext(context);
+        voidType = LLVMVoidTypeInContext(context);
+    }
+
+    public LLVMModuleRef getModule() {
+        return module;
+    }
+
+    private LLVMTypeRef typeOf(IRType type) {
+        switch (type) {
+            case I1:
+                return i1Type;
+            case I32:
+                return i32Type;
+            default:
+                return voidType;
+        }
+    }
+
+    private LLVMValueRef valueOf(IRValue v) {
+        if (v instanceof IRConst) {
+            return LLVMConstInt(typeOf(v.getType()), ((IRConst) v).getValue(), 1);
+        }
+        var ref = values.get(v);
+        if (ref == null) {
+            throw new Error("midir value used before its definition");
+        }
+        return ref;
+    }
+
+    public LLVMModuleRef emit(IRModule irModule) {
+        LLVMInitializeCore(LLVMGetGlobalPassRegistry());
+        LLVMInitializeNativeAsmPrinter();
+        LLVMInitializeNativeAsmParser();
+        LLVMInitializeNativeTarget();
+
+        for (var g : irModule.getGlobals()) {
+            var ref = LLVMAddGlobal(module, i32Type, g.getName());
+            LLVMSetInitializer(ref, LLVMConstInt(i32Type, g.getInit(), 1));
+            LLVMSetGlobalConstant(ref, g.isConstant() ? 1 : 0);
+            values.put(g, ref);
+        }
+        for (var func : irModule.getFunctions()) { // declare all first, calls may go forward
+            int n = func.getParams().size();
+            var paramTypes = new PointerPointer<>(n);
+            for (int i = 0; i < n; i++) {
+                paramTypes.put(i, i32Type);
+            }
+            var ft = LLVMFunctionType(typeOf(func.getRetType()), paramTypes, n, 0);
+            var ref = LLVMAddFunction(module, func.getName(), ft);
+            LLVMBackend.addFunctionAttributes(ref, func.getAttributes());
+            for (var p : func.getParams()) {
+                var param = LLVMGetParam(ref, p.getIndex());
+                LLVMSetValueName(param, p.getName());
+                values.put(p, param);
+            }
+            functions.put(func, ref);
+            functionTypes.put(func, ft);
+        }
+        for (var func : irModule.getFunctions()) {
+            emitFunction(func);
+        }
+        LLVMDisposeBuilder(builder);
+        return module;
+    }
+
+    private void emitFunction(IRFunction func) {
+        var ref = functions.get(func);
+        var rpo = new IRDomTree(func).getRPO();
+        for (var b : rpo) {
+            blocks.put(b, LLVMAppendBasicBlockInContext(context, ref, b.getName()));
+        }
+        for (var b : rpo) {
+            LLVMPositionBuilderAtEnd(builder, blocks.get(b));
+            for (var inst : b.getInsts()) {
+                var v = emitInst(inst);
+                if (v != null) {
+                    values.put(inst, v);
+                }
+            }
+        }
+        for (var b : rpo) {
+            for (var phi : b.getPhis()) {
+                int n = phi.getOperands().size();
+                var vals = new PointerPointer<>(n);
+                var preds = new PointerPointer<>(n);
+                for (int i = 0; i < n; i++) {
+                    vals.put(i, valueOf(phi.getOperand(i)));
+                    preds.put(i, blocks.get(phi.getBlocks().get(i)));
+                }
+                LLVMAddIncoming(values.get(phi), vals, preds, n);
+            }
+        }
+    }
+
+    private LLVMValueRef emitInst(IRInst inst) {
+        var ops = inst.getOperands();
+        switch (inst.getOp()) {
+            // only ever from source arithmetic, where signed overflow is undefined
+            case ADD:
+                return LLVMBuildNSWAdd(builder, valueOf(ops.get(0)), valueOf(ops.get(1)), "");
+            case SUB:
+                return LLVMBuildNSWSub(builder, valueOf(ops.get(0)), valueOf(ops.get(1)), "");
+            case MUL:
+                return LLVMBuildNSWMul(builder, valueOf(ops.get(0)), valueOf(ops.get(1)), "");
+            case SDIV:
+                return LLVMBuildSDiv(builder, valueOf(ops.get(0)), valueOf(ops.get(1)), "");
+            case SREM:
+                return LLVMBuildSRem(builder, valueOf(ops.get(0)), valueOf(ops.get(1)), "");
+            case ICMP:
+                return LLVMBuildICmp(builder, predicate(inst.getCmp()), valueOf(ops.get(0)), valueOf(ops.get(1)), "");
+            case ZEXT:
+                return LLVMBuildZExt(builder, valueOf(ops.get(0)), typeOf(inst.getType()), "");
+            case SELECT:
+                return LLVMBuildSelect(builder, valueOf(ops.get(0)), valueOf(ops.get(1)), valueOf(ops.get(2)), "");
+            case PHI:
+                return LLVMBuildPhi(builder, typeOf(inst.getType()), "");
+            case CALL: {
+                int n = ops.size();
+                var args = new PointerPointer<>(n);
+                for (int i = 0; i < n; i++) {
+                    args.put(i, valueOf(ops.get(i)));
+                }
+                var callee = inst.getCallee();
+                return LLVMBuildCall2(builder, functionTypes.get(callee), functions.get(callee), args, n, "");
+            }
+            case LOAD:
+                return LLVMBuildLoad(builder, valueOf(ops.get(0)), "");
+            case STORE:
+                LLVMBuildStore(builder, valueOf(ops.get(0)), valueOf(ops.get(1)));
+                return null;
+            case BR:
+                LLVMBuildBr(builder, blocks.get(inst.getBlocks().get(0)));
+                return null;
+            case CONDBR:
+                LLVMBuildCondBr(builder, valueOf(ops.get(0)),
+                        blocks.get(inst.getBlocks().get(0)), blocks.get(inst.getBlocks().get(1)));
+                return null;
+            default: // RET
+                if (ops.isEmpty()) {
+                    LLVMBuildRetVoid(builder);
+                } else {
+                    LLVMBuildRet(builder, valueOf(ops.get(0)));
+                }
+                return null;
+        }
+    }
+
+    private static int predicate(IRCmp cmp) {
+        switch (cmp) {
+            case EQ:
+                return LLVMIntEQ;
+            case NE:
+                return LLVMIntNE;
+            case SLT:
+                return LLVMIntSLT;
+            case SGT:
+                return LLVMIntSGT;
+            case SLE:
+                return LLVMIntSLE;
+            default:
+                return LLVMIntSGE;
+        }
+    }
+}
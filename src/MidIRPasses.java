@@ -0,0 +1,799 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Passes over MidIR and the manager running them. A pass works on one
+ * function at a time and reports whether it changed anything.
+ */
+interface IRPass {
+    String getName();
+
+    boolean run(IRFunction func);
+}
+
+class IRPassManager {
+    private final List<IRPass> passes = new ArrayList<>();
+    private final boolean timePasses;
+
+    IRPassManager(boolean timePasses) {
+        this.timePasses = timePasses;
+    }
+
+    public void add(IRPass pass) {
+        passes.add(pass);
+    }
+
+    public boolean run(IRModule module) {
+        boolean changed = false;
+        for (var pass : passes) {
+            long begin = System.nanoTime();
+            for (var func : module.getFunctions()) {
+                changed |= pass.run(func);
+            }
+            if (timePasses) {
+                System.err.printf("midir %s: %.3f ms%n", pass.getName(), (System.nanoTime() - begin) / 1e6);
+            }
+        }
+        return changed;
+    }
+}
+
+/**
+ * Natural loops of a function. A back edge is an edge whose target
+ * dominates its source; all back edges into the same header make one loop.
+ */
+class IRLoop {
+    private final IRBlock header;
+    private final Set<IRBlock> blocks = new LinkedHashSet<>();
+
+    IRLoop(IRBlock header) {
+        this.header = header;
+        blocks.add(header);
+    }
+
+    public IRBlock getHeader() {
+        return header;
+    }
+
+    public Set<IRBlock> getBlocks() {
+        return blocks;
+    }
+
+    public boolean contains(IRBlock b) {
+        return blocks.contains(b);
+    }
+
+    public static List<IRLoop> find(IRFunction func, IRDomTree dom) {
+        var loops = new HashMap<IRBlock, IRLoop>();
+        for (var b : dom.getRPO()) {
+            for (var s : b.getSuccs()) {
+                if (!dom.dominates(s, b)) {
+                    continue;
+                }
+                var loop = loops.computeIfAbsent(s, IRLoop::new);
+                // everything reaching the latch without passing the header
+                var work = new ArrayDeque<IRBlock>();
+                if (loop.blocks.add(b)) {
+                    work.add(b);
+                }
+                while (!work.isEmpty()) {
+                    for (var p : work.poll().getPreds()) {
+                        if (dom.isReachable(p) && loop.blocks.add(p)) {
+                            work.add(p);
+                        }
+                    }
+                }
+            }
+        }
+        var result = new ArrayList<>(loops.values());
+        result.sort((a, b) -> a.blocks.size() - b.blocks.size()); // inner loops first
+        return result;
+    }
+}
+
+/**
+ * Loop invariant code motion. Every loop gets a preheader, a block that
+ * only jumps to the header and is the only way in from outside. Pure
+ * instructions whose operands are all defined outside the loop move there,
+ * as do loads of globals the loop never stores to. Anything hoisted is
+ * executed even if the body is not, so only what can not trap is moved:
+ * division only by a nonzero constant, calls only to pure callees. A loop
+ * with a call to an impure function keeps all of its loads.
+ */
+class LICMPass implements IRPass {
+    public String getName() {
+        return "licm";
+    }
+
+    private IRBlock getPreheader(IRFunction func, IRLoop loop) {
+        var header = loop.getHeader();
+        var outside = new ArrayList<IRBlock>();
+        for (var p : header.getPreds()) {
+            if (!loop.contains(p)) {
+                outside.add(p);
+            }
+        }
+        if (outside.isEmpty()) {
+            return null; // the entry block is the header
+        }
+        if (outside.size() == 1 && outside.get(0).getSuccs().size() == 1) {
+            return outside.get(0);
+        }
+        var pre = func.newBlock("preheader");
+        for (var phi : header.getPhis()) {
+            var incoming = new IRInst(IROp.PHI, phi.getType());
+            for (int i = phi.getBlocks().size() - 1; i >= 0; i--) {
+                if (outside.contains(phi.getBlocks().get(i))) {
+                    incoming.addIncoming(phi.getOperand(i), phi.getBlocks().get(i));
+                    phi.removeIncoming(i);
+                }
+            }
+            if (outside.size() == 1) {
+                phi.addIncoming(incoming.getOperand(0), pre);
+                incoming.erase();
+            } else {
+                pre.append(incoming);
+                phi.addIncoming(incoming, pre);
+            }
+        }
+        for (var p : outside) {
+            var targets = p.getTerminator().getBlocks();
+            for (int i = 0; i < targets.size(); i++) {
+                if (targets.get(i) == header) {
+                    targets.set(i, pre);
+                }
+            }
+            header.getPreds().remove(p);
+            pre.getPreds().add(p);
+        }
+        var br = new IRInst(IROp.BR, IRType.VOID);
+        br.getBlocks().add(header);
+        pre.append(br);
+        header.getPreds().add(pre);
+        return pre;
+    }
+
+    private static boolean isNonZeroConst(IRValue v) {
+        return v instanceof IRConst && ((IRConst) v).getValue() != 0;
+    }
+
+    private boolean isInvariant(IRInst inst, IRLoop loop, Set<IRGlobal> stored, boolean clobbers) {
+        switch (inst.getOp()) {
+            case SDIV:
+            case SREM:
+                if (!isNonZeroConst(inst.getOperand(1))) {
+                    return false;
+                }
+                break;
+            case LOAD:
+                if (clobbers || stored.contains(inst.getOperand(0))) {
+                    return false;
+                }
+                break;
+            case CALL:
+                if (!inst.getCallee().isPure()) {
+                    return false;
+                }
+                break;
+            default:
+                if (!inst.getOp().isPure()) {
+                    return false;
+                }
+        }
+        for (var op : inst.getOperands()) {
+            if (op instanceof IRInst && loop.contains(((IRInst) op).getParent())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hoist(IRLoop loop, IRBlock pre, List<IRBlock> rpo) {
+        var stored = new HashSet<IRGlobal>();
+        boolean clobbers = false;
+        for (var b : loop.getBlocks()) {
+            for (var inst : b.getInsts()) {
+                if (inst.getOp() == IROp.STORE) {
+                    stored.add((IRGlobal) inst.getOperand(1));
+                } else if (inst.getOp() == IROp.CALL && !inst.getCallee().isPure()) {
+                    clobbers = true;
+                }
+            }
+        }
+        boolean changed = false;
+        for (var b : rpo) {
+            if (!loop.contains(b)) {
+                continue;
+            }
+            for (var inst : new ArrayList<>(b.getInsts())) {
+                if (isInvariant(inst, loop, stored, clobbers)) {
+                    b.getInsts().remove(inst);
+                    pre.insertBeforeTerminator(inst);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    public boolean run(IRFunction func) {
+        var loops = IRLoop.find(func, new IRDomTree(func));
+        if (loops.isEmpty()) {
+            return false;
+        }
+        int before = func.getBlocks().size();
+        for (var loop : loops) {
+            getPreheader(func, loop);
+        }
+        boolean changed = func.getBlocks().size() != before;
+        // preheaders change the loop bodies, look again
+        var dom = new IRDomTree(func);
+        for (var loop : IRLoop.find(func, dom)) {
+            var pre = getPreheader(func, loop); // finds the one made above
+            if (pre != null) {
+                changed |= hoist(loop, pre, dom.getRPO());
+            }
+        }
+        return changed;
+    }
+}
+
+/**
+ * Removes unreachable blocks, phis with a single incoming value, blocks
+ * that only jump on and blocks reached by an unconditional jump from their
+ * only predecessor. Leaves the blocks in reverse post order.
+ */
+class CFGCleanupPass implements IRPass {
+    public String getName() {
+        return "cleanup";
+    }
+
+    static void deleteBlock(IRBlock block) {
+        for (var s : new ArrayList<>(block.getSuccs())) {
+            s.removePred(block);
+        }
+        for (var inst : block.getInsts()) {
+            inst.replaceAllUsesWith(new IRConst(inst.getType(), 0));
+        }
+        for (var inst : new ArrayList<>(block.getInsts())) {
+            inst.erase();
+        }
+        block.getParent().getBlocks().remove(block);
+    }
+
+    private boolean removeUnreachable(IRFunction func) {
+        var dom = new IRDomTree(func);
+        boolean changed = false;
+        for (var b : new ArrayList<>(func.getBlocks())) {
+            if (!dom.isReachable(b)) {
+                deleteBlock(b);
+                changed = true;
+            }
+        }
+        // unreachable preds may have been removed above, drop them from the rest
+        for (var b : func.getBlocks()) {
+            for (var p : new ArrayList<>(b.getPreds())) {
+                if (!dom.isReachable(p)) {
+                    b.removePred(p);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean simplifyPhis(IRFunction func) {
+        boolean changed = false;
+        for (var b : func.getBlocks()) {
+            for (var phi : b.getPhis()) {
+                IRValue same = null;
+                boolean trivial = true;
+                for (var op : phi.getOperands()) {
+                    if (op == phi || Objects.equals(op, same)) {
+                        continue;
+                    }
+                    if (same != null) {
+                        trivial = false;
+                        break;
+                    }
+                    same = op;
+                }
+                if (trivial) {
+                    phi.replaceAllUsesWith(same != null ? same : new IRConst(phi.getType(), 0));
+                    phi.erase();
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    // redirect every edge into block to target instead
+    private void retarget(IRBlock block, IRBlock target) {
+        target.getPreds().remove(block);
+        for (var p : block.getPreds()) {
+            var term = p.getTerminator();
+            var targets = term.getBlocks();
+            for (int i = 0; i < targets.size(); i++) {
+                if (targets.get(i) == block) {
+                    targets.set(i, target);
+                }
+            }
+            if (term.getOp() == IROp.CONDBR && targets.get(0) == targets.get(1)) {
+                var br = new IRInst(IROp.BR, IRType.VOID);
+                br.getBlocks().add(target);
+                term.erase();
+                p.append(br);
+            }
+            if (!target.getPreds().contains(p)) {
+                target.getPreds().add(p);
+            }
+        }
+        block.getPreds().clear();
+    }
+
+    private boolean foldForwarders(IRFunction func) {
+        boolean changed = false;
+        for (var b : new ArrayList<>(func.getBlocks())) {
+            if (b == func.getEntry() || b.getInsts().size() != 1) {
+                continue;
+            }
+            var term = b.getTerminator();
+            if (term == null || term.getOp() != IROp.BR) {
+                continue;
+            }
+            var target = term.getBlocks().get(0);
+            if (target == b || !target.getPhis().isEmpty()) {
+                continue;
+            }
+            retarget(b, target);
+            deleteBlock(b);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private boolean mergeStraightLines(IRFunction func) {
+        boolean changed = false;
+        for (var b : new ArrayList<>(func.getBlocks())) {
+            if (b == func.getEntry() || b.getPreds().size() != 1) {
+                continue;
+            }
+            var pred = b.getPreds().get(0);
+            var term = pred.getTerminator();
+            if (pred == b || term.getOp() != IROp.BR) {
+                continue;
+            }
+            for (var phi : b.getPhis()) {
+                phi.replaceAllUsesWith(phi.getOperand(0));
+                phi.erase();
+            }
+            term.erase();
+            for (var inst : new ArrayList<>(b.getInsts())) {
+                b.getInsts().remove(inst);
+                pred.append(inst);
+            }
+            for (var s : pred.getSuccs()) {
+                var preds = s.getPreds();
+                preds.set(preds.indexOf(b), pred);
+                for (var phi : s.getPhis()) {
+                    var blocks = phi.getBlocks();
+                    for (int i = 0; i < blocks.size(); i++) {
+                        if (blocks.get(i) == b) {
+                            blocks.set(i, pred);
+                        }
+                    }
+                }
+            }
+            func.getBlocks().remove(b);
+            changed = true;
+        }
+        return changed;
+    }
+
+    public boolean run(IRFunction func) {
+        boolean changed = false;
+        boolean again = true;
+        while (again) {
+            again = removeUnreachable(func);
+            again |= simplifyPhis(func);
+            again |= foldForwarders(func);
+            again |= mergeStraightLines(func);
+            changed |= again;
+        }
+        var rpo = new IRDomTree(func).getRPO();
+        func.getBlocks().clear();
+        func.getBlocks().addAll(rpo);
+        return changed;
+    }
+}
+
+/**
+ * Sparse conditional constant propagation (Wegman and Zadeck). Values and
+ * CFG edges start out unknown and are only lowered, so constants flowing
+ * around loops and branches that can never be taken are both found.
+ */
+class SCCPPass implements IRPass {
+    // lattice: absent = not known yet, Integer = constant, OVERDEFINED
+    private static final Object OVERDEFINED = new Object();
+
+    private final Map<IRInst, Object> lattice = new HashMap<>();
+    private final Set<IRBlock> executable = new HashSet<>();
+    private final Set<List<IRBlock>> edges = new HashSet<>();
+    private final ArrayDeque<IRBlock[]> flowWork = new ArrayDeque<>();
+    private final ArrayDeque<IRInst> ssaWork = new ArrayDeque<>();
+
+    public String getName() {
+        return "sccp";
+    }
+
+    private Object valueOf(IRValue v) {
+        if (v instanceof IRConst) {
+            return ((IRConst) v).getValue();
+        } else if (v instanceof IRInst) {
+            return lattice.get(v);
+        }
+        return OVERDEFINED; // params and global addresses
+    }
+
+    private void update(IRInst inst, Object v) {
+        var old = lattice.get(inst);
+        if (v == null || Objects.equals(old, v) || old == OVERDEFINED) {
+            return;
+        }
+        lattice.put(inst, old == null ? v : OVERDEFINED);
+        for (var user : inst.getUsers()) {
+            if (executable.contains(user.getParent())) {
+                ssaWork.add(user);
+            }
+        }
+    }
+
+    private void markEdge(IRBlock from, IRBlock to) {
+        if (edges.add(List.of(from, to))) {
+            flowWork.add(new IRBlock[] { from, to });
+        }
+    }
+
+    private static Integer fold(IRInst inst, int a, int b) {
+        switch (inst.getOp()) {
+            case ADD:
+                return a + b;
+            case SUB:
+                return a - b;
+            case MUL:
+                return a * b;
+            case SDIV:
+                return b == 0 ? null : a / b;
+            case SREM:
+                return b == 0 ? null : a % b;
+            case ICMP:
+                return inst.getCmp().eval(a, b) ? 1 : 0;
+            default:
+                return null;
+        }
+    }
+
+    private void visit(IRInst inst) {
+        switch (inst.getOp()) {
+            case PHI: {
+                Object v = null;
+                for (int i = 0; i < inst.getOperands().size(); i++) {
+                    if (!edges.contains(List.of(inst.getBlocks().get(i), inst.getParent()))) {
+                        continue;
+                    }
+                    var op = valueOf(inst.getOperand(i));
+                    if (op == null) {
+                        continue;
+                    }
+                    if (v == null) {
+                        v = op;
+                    } else if (!v.equals(op)) {
+                        v = OVERDEFINED;
+                    }
+                }
+                update(inst, v);
+                break;
+            }
+            case BR:
+                markEdge(inst.getParent(), inst.getBlocks().get(0));
+                break;
+            case CONDBR: {
+                var c = valueOf(inst.getOperand(0));
+                if (c == OVERDEFINED) {
+                    markEdge(inst.getParent(), inst.getBlocks().get(0));
+                    markEdge(inst.getParent(), inst.getBlocks().get(1));
+                } else if (c != null) {
+                    markEdge(inst.getParent(), inst.getBlocks().get((Integer) c != 0 ? 0 : 1));
+                }
+                break;
+            }
+            case SELECT: {
+                var c = valueOf(inst.getOperand(0));
+                var a = valueOf(inst.getOperand(1));
+                var b = valueOf(inst.getOperand(2));
+                if (c == OVERDEFINED) {
+                    update(inst, a == null ? b : (b == null || a.equals(b)) ? a : OVERDEFINED);
+                } else if (c != null) {
+                    update(inst, (Integer) c != 0 ? a : b);
+                }
+                break;
+            }
+            case ZEXT: {
+                update(inst, valueOf(inst.getOperand(0)));
+                break;
+            }
+            case ADD:
+            case SUB:
+            case MUL:
+            case SDIV:
+            case SREM:
+            case ICMP: {
+                var a = valueOf(inst.getOperand(0));
+                var b = valueOf(inst.getOperand(1));
+                if (a == OVERDEFINED || b == OVERDEFINED) {
+                    update(inst, OVERDEFINED);
+                } else if (a != null && b != null) {
+                    var v = fold(inst, (Integer) a, (Integer) b);
+                    update(inst, v == null ? OVERDEFINED : v);
+                }
+                break;
+            }
+            case RET:
+            case STORE:
+                break;
+            default: // calls and loads
+                update(inst, OVERDEFINED);
+        }
+    }
+
+    public boolean run(IRFunction func) {
+        lattice.clear();
+        executable.clear();
+        edges.clear();
+        var entry = func.getEntry();
+        executable.add(entry);
+        for (var inst : entry.getInsts()) {
+            visit(inst);
+        }
+        while (!flowWork.isEmpty() || !ssaWork.isEmpty()) {
+            while (!flowWork.isEmpty()) {
+                var to = flowWork.poll()[1];
+                if (executable.add(to)) {
+                    for (var inst : to.getInsts()) {
+                        visit(inst);
+                    }
+                } else {
+                    for (var phi : to.getPhis()) {
+                        visit(phi);
+                    }
+                }
+            }
+            while (!ssaWork.isEmpty()) {
+                visit(ssaWork.poll());
+            }
+        }
+        return rewrite(func);
+    }
+
+    private boolean rewrite(IRFunction func) {
+        boolean changed = false;
+        for (var b : func.getBlocks()) {
+            if (!executable.contains(b)) {
+                continue;
+            }
+            for (var inst : new ArrayList<>(b.getInsts())) {
+                var v = lattice.get(inst);
+                if (v instanceof Integer && inst.getType() != IRType.VOID) {
+                    inst.replaceAllUsesWith(new IRConst(inst.getType(), (Integer) v));
+                    if (!inst.hasSideEffect()) {
+                        inst.erase();
+                    }
+                    changed = true;
+                }
+            }
+            var term = b.getTerminator();
+            if (term != null && term.getOp() == IROp.CONDBR) {
+                var t = term.getBlocks().get(0);
+                var f = term.getBlocks().get(1);
+                boolean toT = edges.contains(List.of(b, t));
+                boolean toF = edges.contains(List.of(b, f));
+                if (toT != toF) {
+                    var br = new IRInst(IROp.BR, IRType.VOID);
+                    br.getBlocks().add(toT ? t : f);
+                    (toT ? f : t).removePred(b);
+                    term.erase();
+                    b.append(br);
+                    changed = true;
+                }
+            }
+        }
+        for (var b : new ArrayList<>(func.getBlocks())) {
+            if (!executable.contains(b)) {
+                CFGCleanupPass.deleteBlock(b);
+                changed = true;
+            }
+        }
+        for (var b : func.getBlocks()) {
+            for (var p : new ArrayList<>(b.getPreds())) {
+                if (!executable.contains(p)) {
+                    b.removePred(p);
+                }
+            }
+        }
+        return changed;
+    }
+}
+
+/**
+ * Dead code elimination: everything not needed by a store, a call with
+ * side effects or a terminator is removed, including dead phi cycles.
+ */
+class DCEPass implements IRPass {
+    public String getName() {
+        return "dce";
+    }
+
+    public boolean run(IRFunction func) {
+        var live = new HashSet<IRInst>();
+        var work = new ArrayDeque<IRInst>();
+        for (var b : func.getBlocks()) {
+            for (var inst : b.getInsts()) {
+                if (inst.hasSideEffect() && live.add(inst)) {
+                    work.add(inst);
+                }
+            }
+        }
+        while (!work.isEmpty()) {
+            for (var op : work.poll().getOperands()) {
+                if (op instanceof IRInst && live.add((IRInst) op)) {
+                    work.add((IRInst) op);
+                }
+            }
+        }
+        var dead = new ArrayList<IRInst>();
+        for (var b : func.getBlocks()) {
+            for (var inst : b.getInsts()) {
+                if (!live.contains(inst)) {
+                    dead.add(inst);
+                }
+            }
+        }
+        for (var inst : dead) {
+            inst.erase();
+        }
+        return !dead.isEmpty();
+    }
+}
+
+/**
+ * Dominator based value numbering: walks the dominator tree with a scoped
+ * table of pure expressions, an expression already computed in a
+ * dominating block is reused. Commutative operands and compares are put in
+ * a canonical order first so a+b and b+a get the same number.
+ */
+class GVNPass implements IRPass {
+    private final Map<IRValue, Integer> rank = new HashMap<>();
+    private final Map<List<Object>, IRValue> table = new HashMap<>();
+
+    public String getName() {
+        return "gvn";
+    }
+
+    private int rankOf(IRValue v) {
+        if (v instanceof IRConst) {
+            return Integer.MAX_VALUE; // constants go right
+        }
+        return rank.computeIfAbsent(v, k -> rank.size());
+    }
+
+    private List<Object> keyOf(IRInst inst) {
+        var ops = new ArrayList<Object>(inst.getOperands());
+        Object extra = inst.getOp() == IROp.CALL ? inst.getCallee() : inst.getCmp();
+        if (ops.size() == 2 && rankOf(inst.getOperand(0)) > rankOf(inst.getOperand(1))) {
+            if (inst.getOp().isCommutative()) {
+                ops.add(ops.remove(0));
+            } else if (inst.getOp() == IROp.ICMP) {
+                ops.add(ops.remove(0));
+                extra = inst.getCmp().swapped();
+            }
+        }
+        var key = new ArrayList<Object>();
+        key.add(inst.getOp());
+        key.add(extra);
+        key.add(inst.getType());
+        key.addAll(ops);
+        return key;
+    }
+
+    private boolean numberable(IRInst inst) {
+        if (inst.getOp() == IROp.CALL) {
+            return inst.getCallee().isPure();
+        }
+        return inst.getOp().isPure() || inst.getOp() == IROp.SDIV || inst.getOp() == IROp.SREM;
+    }
+
+    public boolean run(IRFunction func) {
+        rank.clear();
+        table.clear();
+        for (var p : func.getParams()) {
+            rankOf(p);
+        }
+        var dom = new IRDomTree(func);
+        boolean changed = false;
+        // explicit stack of (block, keys added in it), popped on the way back up
+        var stack = new ArrayDeque<Object[]>();
+        stack.push(new Object[] { func.getEntry(), null });
+        while (!stack.isEmpty()) {
+            var top = stack.pop();
+            var b = (IRBlock) top[0];
+            if (top[1] != null) {
+                for (var key : (List<?>) top[1]) {
+                    table.remove(key);
+                }
+                continue;
+            }
+            var added = new ArrayList<List<Object>>();
+            for (var inst : new ArrayList<>(b.getInsts())) {
+                rankOf(inst);
+                if (!numberable(inst)) {
+                    continue;
+                }
+                var key = keyOf(inst);
+                var prev = table.get(key);
+                if (prev != null) {
+                    inst.replaceAllUsesWith(prev);
+                    inst.erase();
+                    changed = true;
+                } else {
+                    table.put(key, inst);
+                    added.add(key);
+                }
+            }
+            stack.push(new Object[] { b, added });
+            var kids = dom.getChildren(b);
+            for (int i = kids.size() - 1; i >= 0; i--) {
+                stack.push(new Object[] { kids.get(i), null });
+            }
+        }
+        return changed;
+    }
+}
+
+public class MidIRPasses {
+    public static final String DEFAULT_PIPELINE = "sccp,gvn,licm,dce,cleanup";
+
+    public static IRPass create(String name) {
+        switch (name) {
+            case "sccp":
+                return new SCCPPass();
+            case "dce":
+                return new DCEPass();
+            case "gvn":
+                return new GVNPass();
+            case "licm":
+                return new LICMPass();
+            case "cleanup":
+                return new CFGCleanupPass();
+            default:
+                throw new IllegalArgumentException("unknown midir pass " + name);
+        }
+    }
+
+    public static IRPassManager build(String pipeline, boolean timePasses) {
+        var pm = new IRPassManager(timePasses);
+        pm.add(new CFGCleanupPass()); // the builder leaves empty and forwarding blocks around
+        for (var name : pipeline.split(",")) {
+            if (!name.isEmpty()) {
+                pm.add(create(name));
+            }
+        }
+        return pm;
+    }
+}
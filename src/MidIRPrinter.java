@@ -0,0 +1,124 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Text form of MidIR, close to LLVM's so dumps can be read side by side
+ * with the final module. Instructions are numbered per function.
+ */
+public class MidIRPrinter {
+    private final StringBuilder out = new StringBuilder();
+    private final Map<IRValue, Integer> numbers = new HashMap<>();
+
+    public static String print(IRModule module) {
+        var printer = new MidIRPrinter();
+        for (var g : module.getGlobals()) {
+            printer.out.append(String.format("@%s = %s i32 %d%n",
+                    g.getName(), g.isConstant() ? "constant" : "global", g.getInit()));
+        }
+        for (var func : module.getFunctions()) {
+            printer.printFunction(func);
+        }
+        return printer.out.toString();
+    }
+
+    private String name(IRValue v) {
+        if (v instanceof IRConst) {
+            return Integer.toString(((IRConst) v).getValue());
+        } else if (v instanceof IRParam) {
+            return "%" + ((IRParam) v).getName();
+        } else if (v instanceof IRGlobal) {
+            return "@" + ((IRGlobal) v).getName();
+        }
+        return "%" + numbers.computeIfAbsent(v, k -> numbers.size());
+    }
+
+    private String typed(IRValue v) {
+        return v.getType().typename() + " " + name(v);
+    }
+
+    private void printFunction(IRFunction func) {
+        numbers.clear();
+        for (var b : func.getBlocks()) {
+            for (var inst : b.getInsts()) {
+                if (inst.getType() != IRType.VOID) {
+                    name(inst);
+                }
+            }
+        }
+        out.append("\ndefine ").append(func.getRetType().typename()).append(" @").append(func.getName()).append("(");
+        for (int i = 0; i < func.getParams().size(); i++) {
+            out.append(i > 0 ? ", " : "").append(typed(func.getParams().get(i)));
+        }
+        out.append(func.isPure() ? ") readnone {\n" : ") {\n");
+        for (var b : func.getBlocks()) {
+            out.append(b.getName()).append(":");
+            if (!b.getPreds().isEmpty()) {
+                out.append("    ; preds =");
+                for (var p : b.getPreds()) {
+                    out.append(" %").append(p.getName());
+                }
+            }
+            out.append("\n");
+            for (var inst : b.getInsts()) {
+                out.append("  ").append(format(inst)).append("\n");
+            }
+        }
+        out.append("}\n");
+    }
+
+    private String format(IRInst inst) {
+        var sb = new StringBuilder();
+        if (inst.getType() != IRType.VOID) {
+            sb.append(name(inst)).append(" = ");
+        }
+        sb.append(inst.getOp().opname());
+        var ops = inst.getOperands();
+        switch (inst.getOp()) {
+            case PHI:
+                sb.append(" ").append(inst.getType().typename());
+                for (int i = 0; i < ops.size(); i++) {
+                    sb.append(i > 0 ? "," : "").append(" [ ").append(name(ops.get(i)))
+                            .append(", %").append(inst.getBlocks().get(i).getName()).append(" ]");
+                }
+                break;
+            case BR:
+                sb.append(" label %").append(inst.getBlocks().get(0).getName());
+                break;
+            case CONDBR:
+                sb.append(" ").append(typed(ops.get(0)))
+                        .append(", label %").append(inst.getBlocks().get(0).getName())
+                        .append(", label %").append(inst.getBlocks().get(1).getName());
+                break;
+            case CALL:
+                sb.append(" ").append(inst.getType().typename()).append(" @").append(inst.getCallee().getName()).append("(");
+                for (int i = 0; i < ops.size(); i++) {
+                    sb.append(i > 0 ? ", " : "").append(typed(ops.get(i)));
+                }
+                sb.append(")");
+                break;
+            case LOAD:
+                sb.append(" i32, i32* ").append(name(ops.get(0)));
+                break;
+            case STORE:
+                sb.append(" ").append(typed(ops.get(0))).append(", i32* ").append(name(ops.get(1)));
+                break;
+            case ICMP:
+                sb.append(" ").append(inst.getCmp().name().toLowerCase()).append(" ")
+                        .append(typed(ops.get(0))).append(", ").append(name(ops.get(1)));
+                break;
+            case ZEXT:
+                sb.append(" ").append(typed(ops.get(0))).append(" to ").append(inst.getType().typename());
+                break;
+            default:
+                if (!ops.isEmpty()) {
+                    sb.append(" ").append(typed(ops.get(0)));
+                    for (int i = 1; i < ops.size(); i++) {
+                        sb.append(", ").append(i == 1 && inst.getOp() != IROp.SELECT ? name(ops.get(i)) : typed(ops.get(i)));
+                    }
+                } else if (inst.getOp() == IROp.RET) {
+                    sb.append(" void");
+                }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bytedeco.javacpp.*;
+import org.bytedeco.llvm.LLVM.*;
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * Code generation spread over options.jobs threads. The global variables
+ * and every function body are parts, each generated by an
+ * LLVMIRGenVisitor of its own in an LLVMContext of its own, declaring the
+ * functions and globals it uses. Modules of different contexts cannot be
+ * linked, so a part is handed back as bitcode; the parts are read into
+ * the global context and linked in source order, the globals first.
+ * Cross function decisions come from the one shared CallGraph. With
+ * options.cacheDir set, parts found in the CodegenCache are not generated.
+ */
+public class ParallelCodegen {
+    private final SysYParser.ProgramContext program;
+    private final CompilerOptions options;
+    private final CallGraph callGraph;
+    private final CodegenCache cache; // null without options.cacheDir
+
+    public ParallelCodegen(SysYParser.ProgramContext program, CompilerOptions options) {
+        this.program = program;
+        this.options = options;
+        this.callGraph = new CallGraph(program, options.inlineThreshold);
+        this.cache = options.cacheDir != null ? new CodegenCache(program, options) : null;
+    }
+
+    public CallGraph getCallGraph() {
+        return callGraph;
+    }
+
+    public CodegenCache getCache() {
+        return cache;
+    }
+
+    // the whole program as one module in the global context
+    public LLVMModuleRef run() {
+        LLVMInitializeCore(LLVMGetGlobalPassRegistry());
+        LLVMInitializeNativeAsmPrinter();
+        LLVMInitializeNativeAsmParser();
+        LLVMInitializeNativeTarget();
+
+        var parts = new ArrayList<SysYParser.FuncDefContext>();
+        parts.add(null); // the globals
+        parts.addAll(program.compUnit().funcDef());
+
+        var pool = Executors.newFixedThreadPool(options.jobs);
+        try {
+            var results = new ArrayList<Future<byte[]>>();
+            for (var def : parts) {
+                results.add(pool.submit(() -> generate(def)));
+            }
+            LLVMModuleRef module = null;
+            for (int i = 0; i < parts.size(); i++) {
+                var name = partName(parts.get(i));
+                var part = readBitcode(LLVMGetGlobalContext(), join(results.get(i)), name);
+                if (module == null) {
+                    module = part;
+                } else if (LLVMLinkModules2(module, part) != 0) {
+                    throw new Error("linking " + name + " failed");
+                }
+            }
+            return module;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static String partName(SysYParser.FuncDefContext def) {
+        return def != null ? def.IDENT().getText() : "globals";
+    }
+
+    // bitcode of one part, from the cache or made and dropped in a fresh context
+    private byte[] generate(SysYParser.FuncDefContext def) {
+        String key = null;
+        if (cache != null) {
+            key = cache.key(def);
+            var bitcode = cache.get(key);
+            if (bitcode != null) {
+                return bitcode;
+            }
+        }
+        var context = LLVMContextCreate();
+        var visitor = new LLVMIRGenVisitor(options, context, callGraph, def);
+        try {
+            visitor.visit(program);
+            var bitcode = writeBitcode(visitor.getModule());
+            if (cache != null) {
+                cache.put(key, bitcode);
+            }
+            return bitcode;
+        } finally {
+            visitor.dispose();
+            LLVMContextDispose(context); // and the module in it
+        }
+    }
+
+    private static byte[] join(Future<byte[]> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Error(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new Error(e.getCause());
+        }
+    }
+
+    public static byte[] writeBitcode(LLVMModuleRef module) {
+        var buffer = LLVMWriteBitcodeToMemoryBuffer(module);
+        var bytes = new byte[(int) LLVMGetBufferSize(buffer)];
+        LLVMGetBufferStart(buffer).get(bytes);
+        LLVMDisposeMemoryBuffer(buffer);
+        return bytes;
+    }
+
+    public static LLVMModuleRef readBitcode(LLVMContextRef context, byte[] bytes, String name) {
+        var data = new BytePointer(bytes);
+        var buffer = LLVMCreateMemoryBufferWithMemoryRangeCopy(data, bytes.length, new BytePointer(name));
+        data.deallocate();
+        var module = new LLVMModuleRef();
+        int failed = LLVMParseBitcodeInContext2(context, buffer, module);
+        LLVMDisposeMemoryBuffer(buffer);
+        if (failed != 0) {
+            throw new Error("bad bitcode for " + name);
+        }
+        return module;
+    }
+}
@@ -6,37 +6,20 @@ import org.antlr.v4.runtime.atn.ATNConfigSet;
 import org.antlr.v4.runtime.dfa.DFA;
 
 public class ParserErrorListener extends BaseErrorListener {
-        class OutputErrHelper {
-                private int lastLine = -1;
-
-                public void PrintHelper(int line, String msg) {
-                        if (lastLine == line ) {
-                                return;
-                        }
-                        System.out.println("Error type B at line " + line + ": " + msg);
-                        lastLine = line;
-                }
-
-                public boolean HasError() {
-                        return lastLine != -1;
-                }
-        }
-
-        private OutputErrHelper put =  new OutputErrHelper();
-        private boolean haserr = false;
+        private Diagnostics diagnostics;
 
-        public ParserErrorListener() {
+        public ParserErrorListener(Diagnostics diagnostics) {
+                this.diagnostics = diagnostics;
         }
 
         public boolean hasErr() {
-                return haserr;
+                return diagnostics.hasErrors(Diagnostics.Phase.PARSER);
         }
 
         @Override
         public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
                         String msg, RecognitionException e) {
-                put.PrintHelper(line, msg);
-                haserr = true;
+                diagnostics.report(Diagnostics.Phase.PARSER, "B", line, msg);
         }
 
         @Override
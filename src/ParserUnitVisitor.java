@@ -31,6 +31,8 @@ public class ParserUnitVisitor extends SysYParserBaseVisitor<Void> {
         var text = token.getText();
         if (token.getType() == SysYLexer.INTEGER_CONST) {
             text = String.valueOf(Integer.decode(token.getText()));
+        } else if (token.getType() == SysYLexer.FLOAT_CONST) {
+            text = String.valueOf(Float.parseFloat(token.getText()));
         }
         printWithPadding(typeName + " " + text);
         return null;
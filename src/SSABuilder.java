@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.bytedeco.javacpp.*;
+import org.bytedeco.llvm.LLVM.*;
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * On the fly SSA construction for scalar variables, after Braun et al.,
+ * "Simple and Efficient Construction of Static Single Assignment Form".
+ *
+ * The current definition of every variable is tracked per CFGBuilder.Block.
+ * Reading a variable in a block without a local definition looks it up in
+ * the predecessors, placing a phi at joins. Blocks that may still get
+ * predecessors (loop headers) get incomplete phis that are filled in when
+ * the block is sealed. Phis that turn out to merge a single value are
+ * removed again.
+ */
+public class SSABuilder {
+    interface Variable {
+        String getId();
+
+        LLVMTypeRef getType();
+    }
+
+    private final LLVMBuilderRef phiBuilder;
+    private final Function<String, String> namer;
+    private final IdentityHashMap<CFGBuilder.Block, Map<Variable, LLVMValueRef>> currentDef = new IdentityHashMap<>();
+    private final IdentityHashMap<CFGBuilder.Block, Map<Variable, LLVMValueRef>> incompletePhis = new IdentityHashMap<>();
+    private final HashMap<LLVMValueRef, Variable> phiVariable = new HashMap<>();
+    // removed trivial phi -> value that replaced it. the phis are erased in
+    // finishFunction so their addresses are not reused while still mapped
+    private final HashMap<LLVMValueRef, LLVMValueRef> replaced = new HashMap<>();
+
+    public SSABuilder(LLVMContextRef context, Function<String, String> namer) {
+        this.phiBuilder = LLVMCreateBuilderInContext(context);
+        this.namer = namer;
+    }
+
+    private LLVMValueRef resolve(LLVMValueRef v) {
+        while (v != null && replaced.containsKey(v)) {
+            v = replaced.get(v);
+        }
+        return v;
+    }
+
+    private void setDef(Variable var, CFGBuilder.Block block, LLVMValueRef value) {
+        currentDef.computeIfAbsent(block, b -> new HashMap<>()).put(var, value);
+    }
+
+    public void writeVariable(Variable var, CFGBuilder.Block block, LLVMValueRef value) {
+        setDef(var, block, value);
+        block.pin(); // the block now carries a definition even if it has no instruction
+    }
+
+    public LLVMValueRef readVariable(Variable var, CFGBuilder.Block block) {
+        var defs = currentDef.get(block);
+        if (defs != null && defs.containsKey(var)) {
+            var v = resolve(defs.get(var));
+            defs.put(var, v);
+            return v;
+        }
+        return readVariableRecursive(var, block);
+    }
+
+    private LLVMValueRef readVariableRecursive(Variable var, CFGBuilder.Block block) {
+        LLVMValueRef val;
+        if (!block.isSealed()) {
+            val = newPhi(var, block);
+            incompletePhis.computeIfAbsent(block, b -> new HashMap<>()).put(var, val);
+        } else if (block.getPreds().isEmpty()) {
+            val = LLVMGetUndef(var.getType()); // read before any write
+        } else if (block.getPreds().size() == 1) {
+            val = readVariable(var, block.getPreds().get(0));
+        } else {
+            val = newPhi(var, block);
+            setDef(var, block, val); // break cycles through loops
+            val = addPhiOperands(var, val, block);
+        }
+        setDef(var, block, val);
+        return val;
+    }
+
+    private LLVMValueRef newPhi(Variable var, CFGBuilder.Block block) {
+        var first = LLVMGetFirstInstruction(block.getRef());
+        if (first != null) {
+            LLVMPositionBuilderBefore(phiBuilder, first);
+        } else {
+            LLVMPositionBuilderAtEnd(phiBuilder, block.getRef());
+        }
+        var phi = LLVMBuildPhi(phiBuilder, var.getType(), namer.apply(var.getId()));
+        phiVariable.put(phi, var);
+        return phi;
+    }
+
+    private LLVMValueRef addPhiOperands(Variable var, LLVMValueRef phi, CFGBuilder.Block block) {
+        for (var pred : block.getPreds()) {
+            var v = readVariable(var, pred);
+            PointerPointer<Pointer> values = new PointerPointer<>(1).put(0, v);
+            PointerPointer<Pointer> blocks = new PointerPointer<>(1).put(0, pred.getRef());
+            LLVMAddIncoming(phi, values, blocks, 1);
+        }
+        return tryRemoveTrivialPhi(phi);
+    }
+
+    private LLVMValueRef tryRemoveTrivialPhi(LLVMValueRef phi) {
+        LLVMValueRef same = null;
+        int n = LLVMCountIncoming(phi);
+        for (int i = 0; i < n; i++) {
+            var op = LLVMGetIncomingValue(phi, i);
+            if (op.equals(same) || op.equals(phi)) {
+                continue; // unique value or self reference
+            }
+            if (same != null) {
+                return phi; // merges at least two values, not trivial
+            }
+            same = op;
+        }
+        if (same == null) {
+            same = LLVMGetUndef(LLVMTypeOf(phi)); // unreachable or in the start block
+        }
+        var phiUsers = new ArrayList<LLVMValueRef>();
+        for (var use = LLVMGetFirstUse(phi); use != null; use = LLVMGetNextUse(use)) {
+            var user = LLVMGetUser(use);
+            if (!user.equals(phi) && LLVMIsAPHINode(user) != null && phiVariable.containsKey(user)) {
+                phiUsers.add(user);
+            }
+        }
+        LLVMReplaceAllUsesWith(phi, same);
+        replaced.put(phi, same);
+        phiVariable.remove(phi);
+        var done = new HashSet<LLVMValueRef>();
+        for (var user : phiUsers) {
+            if (done.add(user) && phiVariable.containsKey(user)) {
+                tryRemoveTrivialPhi(user);
+            }
+        }
+        return resolve(same);
+    }
+
+    public void finishFunction() {
+        for (var phi : replaced.keySet()) {
+            LLVMInstructionEraseFromParent(phi);
+        }
+        currentDef.clear();
+        incompletePhis.clear();
+        phiVariable.clear();
+        replaced.clear();
+    }
+
+    public void dispose() {
+        LLVMDisposeBuilder(phiBuilder);
+    }
+
+    // all predecessors of block are known now
+    public void sealBlock(CFGBuilder.Block block) {
+        var phis = incompletePhis.remove(block);
+        if (phis == null) {
+            return;
+        }
+        for (var entry : phis.entrySet()) {
+            addPhiOperands(entry.getKey(), entry.getValue(), block);
+        }
+    }
+}
@@ -70,6 +70,12 @@ IDENT // 以下划线或字母开头，仅包含下划线、英文字母大小
    : [_a-zA-Z] [_a-zA-Z0-9]*
    ;
 
+FLOAT_CONST : // 浮点常量，十进制或0x开头的十六进制（需p指数），同C
+   ([0-9]* '.' [0-9]+ | [0-9]+ '.') ([eE] [+-]? [0-9]+)?
+   | [0-9]+ [eE] [+-]? [0-9]+
+   | '0' [xX] ([0-9a-fA-F]* '.' [0-9a-fA-F]+ | [0-9a-fA-F]+ '.'?) [pP] [+-]? [0-9]+
+   ;
+
 INTEGER_CONST : // 数字常量，包含十进制数，0开头的八进制数，0x或0X开头的十六进制数
    '0'
    | [1-9] [0-9]*
@@ -71,7 +71,7 @@ cond:
 
 lVal: IDENT (L_BRACKT exp R_BRACKT)*;
 
-number: INTEGER_CONST;
+number: INTEGER_CONST | FLOAT_CONST;
 
 unaryOp: PLUS | MINUS | NOT;
 
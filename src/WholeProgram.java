@@ -0,0 +1,136 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Stack;
+
+import org.bytedeco.llvm.LLVM.*;
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * Closed world treatment of a finished module: a SysY program is all of
+ * one file and only main is called from outside, the runtime library
+ * only provides declarations. Functions and globals main cannot reach are
+ * deleted, everything else defined here but main becomes internal so the
+ * ipo passes may change signatures and drop symbols, and globals that are
+ * only ever loaded become constants.
+ */
+public class WholeProgram {
+    private int removedFunctions = 0;
+    private int removedGlobals = 0;
+    private int constantGlobals = 0;
+
+    public static WholeProgram run(LLVMModuleRef module) {
+        var wp = new WholeProgram();
+        var main = LLVMGetNamedFunction(module, "main");
+        if (main != null && LLVMCountBasicBlocks(main) > 0) {
+            var reachable = wp.findReachable(main);
+            wp.removeUnreachable(module, reachable);
+            wp.internalize(module, main);
+        }
+        return wp;
+    }
+
+    // functions and globals used, transitively, by main's body
+    private Set<LLVMValueRef> findReachable(LLVMValueRef main) {
+        var reachable = new HashSet<LLVMValueRef>();
+        var work = new Stack<LLVMValueRef>();
+        reachable.add(main);
+        work.push(main);
+        while (!work.isEmpty()) {
+            var func = work.pop();
+            for (var bb = LLVMGetFirstBasicBlock(func); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+                for (var inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                    int n = LLVMGetNumOperands(inst);
+                    for (int i = 0; i < n; i++) {
+                        reach(LLVMGetOperand(inst, i), reachable, work);
+                    }
+                }
+            }
+        }
+        return reachable;
+    }
+
+    // op and what it refers to, through constant expressions such as a cast or gep of a global
+    private static void reach(LLVMValueRef op, Set<LLVMValueRef> reachable, Stack<LLVMValueRef> work) {
+        if (op == null || reachable.contains(op)) {
+            return;
+        }
+        if (LLVMIsAFunction(op) != null) {
+            reachable.add(op);
+            work.push(op);
+        } else if (LLVMIsAGlobalVariable(op) != null) {
+            reachable.add(op); // initializers are plain constants
+        } else if (LLVMIsAConstantExpr(op) != null) {
+            int n = LLVMGetNumOperands(op);
+            for (int i = 0; i < n; i++) {
+                reach(LLVMGetOperand(op, i), reachable, work);
+            }
+        }
+    }
+
+    private void removeUnreachable(LLVMModuleRef module, Set<LLVMValueRef> reachable) {
+        var deadFunctions = new ArrayList<LLVMValueRef>();
+        for (var f = LLVMGetFirstFunction(module); f != null; f = LLVMGetNextFunction(f)) {
+            if (!reachable.contains(f)) {
+                deadFunctions.add(f);
+            }
+        }
+        var deadGlobals = new ArrayList<LLVMValueRef>();
+        for (var g = LLVMGetFirstGlobal(module); g != null; g = LLVMGetNextGlobal(g)) {
+            if (!reachable.contains(g)) {
+                deadGlobals.add(g);
+            }
+        }
+        // only dead code can still refer to them
+        for (var f : deadFunctions) {
+            LLVMReplaceAllUsesWith(f, LLVMGetUndef(LLVMTypeOf(f)));
+        }
+        for (var g : deadGlobals) {
+            LLVMReplaceAllUsesWith(g, LLVMGetUndef(LLVMTypeOf(g)));
+        }
+        for (var f : deadFunctions) {
+            if (LLVMCountBasicBlocks(f) > 0) {
+                removedFunctions++;
+            }
+            LLVMDeleteFunction(f);
+        }
+        for (var g : deadGlobals) {
+            LLVMDeleteGlobal(g);
+            removedGlobals++;
+        }
+    }
+
+    private void internalize(LLVMModuleRef module, LLVMValueRef main) {
+        for (var f = LLVMGetFirstFunction(module); f != null; f = LLVMGetNextFunction(f)) {
+            if (!f.equals(main) && LLVMCountBasicBlocks(f) > 0) {
+                LLVMSetLinkage(f, LLVMInternalLinkage);
+            }
+        }
+        for (var g = LLVMGetFirstGlobal(module); g != null; g = LLVMGetNextGlobal(g)) {
+            LLVMSetLinkage(g, LLVMInternalLinkage);
+            if (LLVMIsGlobalConstant(g) == 0 && isOnlyLoaded(g)) {
+                LLVMSetGlobalConstant(g, 1);
+                constantGlobals++;
+            }
+        }
+    }
+
+    // also through the geps and casts that address an element of an array
+    private static boolean isOnlyLoaded(LLVMValueRef address) {
+        for (var use = LLVMGetFirstUse(address); use != null; use = LLVMGetNextUse(use)) {
+            var user = LLVMGetUser(use);
+            if (LLVMIsALoadInst(user) != null) {
+                continue;
+            }
+            if ((LLVMIsAGetElementPtrInst(user) == null && LLVMIsAConstantExpr(user) == null) || !isOnlyLoaded(user)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getSummary() {
+        return String.format("whole program: %d functions and %d globals removed, %d globals made constant",
+                removedFunctions, removedGlobals, constantGlobals);
+    }
+}